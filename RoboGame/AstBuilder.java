@@ -0,0 +1,49 @@
+/**
+ * Receives the structure of a program from the Parser as it is recognised.
+ * Each node is reported as open(op), then its children in order, then
+ * close(). NUM leaves are reported with literal(..) instead, and VAR
+ * leaves with variable(..).
+ *
+ * The children of each kind of node are:
+ *   PROG, BLOCK     the statements
+ *   LOOP            a BLOCK
+ *   IF              a condition, a BLOCK, any number of ELIFs, then an optional BLOCK for else
+ *   ELIF, WHILE     a condition and a BLOCK
+ *   MOVE, WAIT      an optional expression
+ *   BARRELLR, BARRELFB    an optional expression (which barrel)
+ *   ASSIGN          a VAR and an expression
+ *   ADD .. DIV, LT .. EQ, AND, OR    two operands
+ *   NOT             one condition
+ */
+interface AstBuilder {
+
+    void open(int op);
+
+    void literal(int value);
+
+    /**
+     * A $variable. The Parser gives each name a slot, numbering them from 0
+     * in the order they first appear in the program, so a program with n
+     * variables keeps them in an int[n] (see Robot.frame()).
+     */
+    void variable(int slot, String name);
+
+    void close();
+
+    /**
+     * Called when the parser is about to parse a statement starting at the
+     * lexer's next token. A builder that already has the node for that
+     * statement can add it itself, move the lexer past it with skipTo(..),
+     * and return true; the parser then carries on after it.
+     */
+    default boolean reuseStatement(Lexer s) {
+        return false;
+    }
+
+    /**
+     * Called when the parser has finished a statement that it parsed
+     * (rather than reused); the lexer is at the token after it.
+     */
+    default void endStatement(Lexer s) {
+    }
+}
@@ -0,0 +1,389 @@
+import java.util.Arrays;
+
+/**
+ * A program compiled to a dense stream of int instructions for a small
+ * stack machine, and the interpreter that runs it.
+ *
+ * Each instruction is an opcode, followed by an operand for PUSH, LOAD,
+ * STORE and the jumps. Actions, sensors, arithmetic, comparisons and not
+ * use their Op numbers as opcodes; the rest are below, after the Op
+ * numbers. Conditions leave 1 or 0 on the stack. Variables are in the
+ * robot's frame(), by slot. Control flow is all jumps, so execute(..) is a single loop over
+ * one switch that calls the Robot directly, with no calls between nodes.
+ *
+ * It behaves exactly like the tree: the same Robot calls in the same
+ * order, with move(n) and wait(n) evaluating n once and asking the Robot
+ * for all n steps at once, and the same quirks (loop runs its block once; an if with elifs runs every
+ * elif whose condition holds, and never its else).
+ *
+ * All of the machine's state is its pc and stack, so a run can also be
+ * stopped after each action and carried on later: step(..) runs a State
+ * (made by start()) until the robot's next action, without using the Java
+ * stack however deeply the program is nested.
+ */
+public class BytecodeProgram implements ProgramNode {
+
+    static final int
+        PUSH = 40,       // PUSH n:    push n
+        JMP = 41,        // JMP a:     go to a
+        JZ = 42,         // JZ a:      pop; go to a if it was 0
+        JFALSE = 43,     // JFALSE a:  if the top is 0 go to a (keeping it), else pop it
+        JTRUE = 44,      // JTRUE a:   if the top is not 0 go to a (keeping it), else pop it
+        HALT = 45,
+        MOVE_N = 46,     // MOVE_N:    pop n; robot.move(n)
+        WAIT_N = 47,     // WAIT_N:    pop n; robot.idleWait(n)
+        LOAD = 48,       // LOAD s:    push variable s
+        STORE = 49,      // STORE s:   pop into variable s
+        BARRELLR_N = 50, // BARRELLR_N: pop n; push robot.getBarrelLR(n)
+        BARRELFB_N = 51; // BARRELFB_N: pop n; push robot.getBarrelFB(n)
+
+    final int[] code;
+    final int maxStack;
+    final int slots;    // the number of variables
+
+    private BytecodeProgram(int[] code, int maxStack, int slots) {
+        this.code = code;
+        this.maxStack = maxStack;
+        this.slots = slots;
+    }
+
+    /** Compiles a parsed program (a tree or a FlatProgram). */
+    public static BytecodeProgram compile(ProgramNode prog) {
+        Compiler compiler = new Compiler();
+        if (prog instanceof FlatProgram) { ((FlatProgram) prog).emit(compiler); }
+        else { Parser.emit(prog, compiler); }
+        return compiler.build();
+    }
+
+    /**
+     * The code for a program: the program itself if it is already code,
+     * the code inside a TieredProgram, or else the program compiled.
+     */
+    public static BytecodeProgram of(ProgramNode prog) {
+        if (prog instanceof BytecodeProgram) { return (BytecodeProgram) prog; }
+        if (prog instanceof TieredProgram) { return ((TieredProgram) prog).code; }
+        return compile(prog);
+    }
+
+    /** The number of ints of code. */
+    public int size() {
+        return code.length;
+    }
+
+    public void execute(Robot robot) {
+        run(robot, null);
+    }
+
+    /**
+     * Where a run of the program has got to. A paused robot costs just
+     * this: its pc, the machine's stack, and its variables.
+     */
+    public static final class State {
+        private final int[] stack;
+        private int pc, sp;
+        private int[] frame;    // the robot's, once the run has started
+        private boolean finished;
+
+        private State(int maxStack) {
+            stack = new int[maxStack];
+        }
+
+        /** Whether the program has run to its end. */
+        public boolean isFinished() {
+            return finished;
+        }
+    }
+
+    /** A new run of the program, from the start. */
+    public State start() {
+        return new State(maxStack);
+    }
+
+    /**
+     * Runs the program from where the state got to, until the robot has
+     * done an action that takes a tick (shieldOn and shieldOff don't, so
+     * they are done along the way). Returns true then, or false if the
+     * program finished instead.
+     */
+    public boolean step(Robot robot, State state) {
+        return !state.finished && resume(robot, state, null, true);
+    }
+
+    /**
+     * Runs the code. If tier is not null, tells it about each statement run,
+     * and moves over to its compiled code, once there is some, at the top
+     * of a while loop.
+     */
+    void run(Robot robot, TieredProgram tier) {
+        resume(robot, start(), tier, false);
+    }
+
+    /**
+     * Runs the code from where the state got to: to the end, or, if step
+     * is true, only until an action that takes a tick, saving the pc and
+     * stack pointer in the state.
+     */
+    private boolean resume(Robot robot, State state, TieredProgram tier, boolean step) {
+        int[] code = this.code;
+        int[] stack = state.stack;
+        int[] frame = state.frame;
+        if (frame == null) { frame = state.frame = robot.newFrame(slots); }
+        int sp = state.sp;
+        int pc = state.pc;
+        for (;;) {
+            int op = code[pc++];
+            if (tier != null && (Op.isAction(op) || op == MOVE_N || op == WAIT_N)) { tier.count(); }
+            switch (op) {
+            case Op.MOVE -> robot.move();
+            case Op.TURNL -> robot.turnLeft();
+            case Op.TURNR -> robot.turnRight();
+            case Op.TAKEFUEL -> robot.takeFuel();
+            case Op.WAIT -> robot.idleWait();
+            case Op.TURNAROUND -> robot.turnAround();
+            case Op.SHIELDON -> robot.setShield(true);
+            case Op.SHIELDOFF -> robot.setShield(false);
+            case MOVE_N -> robot.move(stack[--sp]);
+            case WAIT_N -> robot.idleWait(stack[--sp]);
+            case PUSH -> stack[sp++] = code[pc++];
+            case Op.FUELLEFT -> stack[sp++] = robot.getFuel();
+            case Op.OPPLR -> stack[sp++] = robot.getOpponentLR();
+            case Op.OPPFB -> stack[sp++] = robot.getOpponentFB();
+            case Op.NUMBARRELS -> stack[sp++] = robot.numBarrels();
+            case Op.BARRELLR -> stack[sp++] = robot.getClosestBarrelLR();
+            case Op.BARRELFB -> stack[sp++] = robot.getClosestBarrelFB();
+            case Op.WALLDIST -> stack[sp++] = robot.getDistanceToWall();
+            case BARRELLR_N -> stack[sp - 1] = robot.getBarrelLR(stack[sp - 1]);
+            case BARRELFB_N -> stack[sp - 1] = robot.getBarrelFB(stack[sp - 1]);
+            case LOAD -> stack[sp++] = frame[code[pc++]];
+            case STORE -> frame[code[pc++]] = stack[--sp];
+            case Op.ADD -> { sp--; stack[sp - 1] += stack[sp]; }
+            case Op.SUB -> { sp--; stack[sp - 1] -= stack[sp]; }
+            case Op.MUL -> { sp--; stack[sp - 1] *= stack[sp]; }
+            case Op.DIV -> { sp--; stack[sp - 1] /= stack[sp]; }
+            case Op.LT -> { sp--; stack[sp - 1] = (stack[sp - 1] < stack[sp]) ? 1 : 0; }
+            case Op.GT -> { sp--; stack[sp - 1] = (stack[sp - 1] > stack[sp]) ? 1 : 0; }
+            case Op.EQ -> { sp--; stack[sp - 1] = (stack[sp - 1] == stack[sp]) ? 1 : 0; }
+            case Op.NOT -> stack[sp - 1] ^= 1;
+            case JMP -> {
+                int to = code[pc];
+                if (to < pc && sp == 0 && robot.countIteration() && step) {
+                    // going round a while loop, and made to wait
+                    state.pc = to;
+                    state.sp = 0;
+                    return true;
+                }
+                if (tier != null && to < pc && sp == 0) {
+                    // going round a while loop
+                    TieredProgram.Compiled c = tier.count();
+                    if (c != null) {
+                        c.run(robot, to);
+                        state.finished = true;
+                        return false;
+                    }
+                }
+                pc = to;
+            }
+            case JZ -> pc = (stack[--sp] == 0) ? code[pc] : pc + 1;
+            case JFALSE -> {
+                if (stack[sp - 1] == 0) { pc = code[pc]; }
+                else { sp--; pc++; }
+            }
+            case JTRUE -> {
+                if (stack[sp - 1] != 0) { pc = code[pc]; }
+                else { sp--; pc++; }
+            }
+            case HALT -> {
+                state.finished = true;
+                return false;
+            }
+            default -> throw new IllegalStateException("bad instruction " + op + " at " + (pc - 1));
+            }
+            if (step && takesTick(op, stack, sp)) {
+                state.pc = pc;
+                state.sp = sp;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Whether an instruction that has just run was an action that takes a
+     * tick. MOVE_N and WAIT_N have just popped n (from stack[sp]): a move
+     * or wait of no steps does nothing, so it doesn't take one.
+     */
+    private static boolean takesTick(int op, int[] stack, int sp) {
+        if (op == MOVE_N || op == WAIT_N) { return stack[sp] > 0; }
+        return Op.takesTick(op);
+    }
+
+    //----------------------------------------------------------------
+
+    /**
+     * Compiles the Parser's events into code. Simple instructions are
+     * written when their node closes (operands come first, as the events
+     * do); jumps are written between children and patched when the target
+     * is known.
+     */
+    static class Compiler implements AstBuilder {
+        private int[] code = new int[64];
+        private int pc;
+        private int depth, maxDepth;    // of the machine's stack, as the code runs
+        private int slots;
+
+        // the nodes that are open: op, number of children so far, and code
+        // addresses to come back to (jumps to patch, or the top of a loop;
+        // for an ASSIGN, test is the slot it stores to instead)
+        private int[] ops = new int[16], counts = new int[16];
+        private int[] test = new int[16], skip = new int[16], skipElse = new int[16];
+        private int open;
+
+        public void open(int op) {
+            beforeChild(op);
+            if (open == ops.length) {
+                ops = Arrays.copyOf(ops, open * 2);
+                counts = Arrays.copyOf(counts, open * 2);
+                test = Arrays.copyOf(test, open * 2);
+                skip = Arrays.copyOf(skip, open * 2);
+                skipElse = Arrays.copyOf(skipElse, open * 2);
+            }
+            ops[open] = op;
+            counts[open] = 0;
+            test[open] = skip[open] = skipElse[open] = -1;
+            if (op == Op.WHILE) { skip[open] = pc; }    // the top of the loop
+            open++;
+        }
+
+        public void literal(int value) {
+            beforeChild(Op.NUM);
+            emit(PUSH, value);
+            push(1);
+            afterChild();
+        }
+
+        public void variable(int slot, String name) {
+            beforeChild(Op.VAR);
+            slots = Math.max(slots, slot + 1);
+            if (open > 0 && ops[open - 1] == Op.ASSIGN && counts[open - 1] == 0) {
+                test[open - 1] = slot;    // where the assignment stores its value
+            } else {
+                emit(LOAD, slot);
+                push(1);
+            }
+            afterChild();
+        }
+
+        public void close() {
+            open--;
+            int op = ops[open];
+            switch (op) {
+            case Op.PROG -> emit(HALT);
+            case Op.BLOCK, Op.LOOP -> {}
+            case Op.IF -> {
+                if (counts[open] == 2) {
+                    pc -= 2;    // no elif or else: drop the jump over them
+                    patch(test[open]);
+                } else {
+                    patch(skip[open]);
+                    if (skipElse[open] >= 0) { patch(skipElse[open]); }
+                }
+            }
+            case Op.ELIF, Op.AND, Op.OR -> patch(test[open]);
+            case Op.WHILE -> {
+                emit(JMP, skip[open]);
+                patch(test[open]);
+            }
+            case Op.MOVE, Op.WAIT -> {
+                if (counts[open] == 0) {
+                    emit(op);
+                } else {
+                    emit(op == Op.MOVE ? MOVE_N : WAIT_N);    // n is on the stack
+                    push(-1);
+                }
+            }
+            case Op.ADD, Op.SUB, Op.MUL, Op.DIV, Op.LT, Op.GT, Op.EQ -> {
+                emit(op);
+                push(-1);
+            }
+            case Op.ASSIGN -> {
+                emit(STORE, test[open]);
+                push(-1);
+            }
+            case Op.BARRELLR, Op.BARRELFB -> {
+                if (counts[open] == 0) {
+                    emit(op);
+                    push(1);
+                } else {
+                    emit(op == Op.BARRELLR ? BARRELLR_N : BARRELFB_N);    // in place of the index
+                }
+            }
+            default -> {
+                emit(op);    // a sensor, not, or an action with no argument
+                if (Op.isSensor(op)) { push(1); }
+            }
+            }
+            afterChild();
+        }
+
+        /** Writes what goes before the next child (of kind op) of the open node. */
+        private void beforeChild(int op) {
+            if (open == 0) { return; }
+            int p = open - 1;
+            if (ops[p] == Op.IF && counts[p] > 2 && op == Op.BLOCK) {
+                skipElse[p] = emitJump(JMP);    // the else of an if with elifs is never run
+            }
+        }
+
+        /** Writes what goes after a child of the open node has finished. */
+        private void afterChild() {
+            if (open == 0) { return; }
+            int p = open - 1;
+            int op = ops[p];
+            int index = counts[p]++;
+            if (index == 0 && (op == Op.IF || op == Op.ELIF || op == Op.WHILE)) {
+                test[p] = emitJump(JZ);
+                push(-1);
+            } else if (index == 1 && op == Op.IF) {
+                skip[p] = emitJump(JMP);    // over the elifs or else
+                patch(test[p]);
+            } else if (index == 0 && (op == Op.AND || op == Op.OR)) {
+                test[p] = emitJump(op == Op.AND ? JFALSE : JTRUE);
+                push(-1);    // on the way to the second operand
+            }
+        }
+
+        private void emit(int op) {
+            ensure(1);
+            code[pc++] = op;
+        }
+
+        private void emit(int op, int operand) {
+            ensure(2);
+            code[pc++] = op;
+            code[pc++] = operand;
+        }
+
+        /** Writes a jump whose target is not known yet, returning where to patch it. */
+        private int emitJump(int op) {
+            emit(op, -1);
+            return pc - 1;
+        }
+
+        /** Makes the jump whose operand is at the given address go to pc. */
+        private void patch(int at) {
+            code[at] = pc;
+        }
+
+        private void push(int n) {
+            depth += n;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        private void ensure(int n) {
+            if (pc + n > code.length) { code = Arrays.copyOf(code, Math.max(code.length * 2, pc + n)); }
+        }
+
+        BytecodeProgram build() {
+            return new BytecodeProgram(Arrays.copyOf(code, pc), Math.max(maxDepth, 1), slots);
+        }
+    }
+}
@@ -0,0 +1,358 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Turns a BytecodeProgram into a JVM class implementing
+ * TieredProgram.Compiled, and loads it as a hidden class (so it is
+ * unloaded again when the program is no longer used).
+ *
+ * The machine the BytecodeProgram runs on is a stack machine, like the
+ * JVM, so each of its instructions becomes a few JVM instructions on the
+ * same stack: PUSH becomes a constant, a sensor or action becomes a call
+ * on the Robot (local 1), LOAD and STORE use the robot's frame() (which
+ * the method keeps in local 3), and the jumps become JVM branches. The
+ * class file is version 49, which needs no stack map frames.
+ *
+ * The method then switches on the entry address (local 2) so that
+ * a robot that was running the program in the interpreter can carry on at
+ * the top of the while loop it was in. Like the interpreter, it calls
+ * Robot.countIteration() each time it goes round a while loop.
+ */
+final class ClassGenerator {
+
+    /** Thrown if the code would be too big for the JIT to compile. */
+    @SuppressWarnings("serial")
+    static final class TooBigException extends RuntimeException {}
+
+    /** HotSpot does not JIT compile methods with more bytecode than this. */
+    private static final int HUGE_METHOD = 8000;
+
+    private static final String ROBOT = "Robot";
+    private static final String[][] CALLS = new String[Op.COUNT][];
+    static {
+        CALLS[Op.MOVE] = new String[] { "move", "()V" };
+        CALLS[Op.TURNL] = new String[] { "turnLeft", "()V" };
+        CALLS[Op.TURNR] = new String[] { "turnRight", "()V" };
+        CALLS[Op.TAKEFUEL] = new String[] { "takeFuel", "()V" };
+        CALLS[Op.WAIT] = new String[] { "idleWait", "()V" };
+        CALLS[Op.TURNAROUND] = new String[] { "turnAround", "()V" };
+        CALLS[Op.SHIELDON] = new String[] { "setShield", "(Z)V" };
+        CALLS[Op.SHIELDOFF] = new String[] { "setShield", "(Z)V" };
+        CALLS[Op.FUELLEFT] = new String[] { "getFuel", "()I" };
+        CALLS[Op.OPPLR] = new String[] { "getOpponentLR", "()I" };
+        CALLS[Op.OPPFB] = new String[] { "getOpponentFB", "()I" };
+        CALLS[Op.NUMBARRELS] = new String[] { "numBarrels", "()I" };
+        CALLS[Op.BARRELLR] = new String[] { "getClosestBarrelLR", "()I" };
+        CALLS[Op.BARRELFB] = new String[] { "getClosestBarrelFB", "()I" };
+        CALLS[Op.WALLDIST] = new String[] { "getDistanceToWall", "()I" };
+    }
+
+    // JVM opcodes
+    private static final int
+        ICONST_0 = 0x03, ICONST_1 = 0x04, BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13,
+        ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, ALOAD_3 = 0x2d, ILOAD_2 = 0x1c, IALOAD = 0x2e,
+        ASTORE_3 = 0x4e, IASTORE = 0x4f, POP = 0x57, DUP = 0x59, SWAP = 0x5f,
+        IADD = 0x60, ISUB = 0x64, IMUL = 0x68, IDIV = 0x6c, IXOR = 0x82,
+        IFEQ = 0x99, IFNE = 0x9a, IF_ICMPNE = 0xa0, IF_ICMPGE = 0xa2, IF_ICMPLE = 0xa4,
+        GOTO = 0xa7, LOOKUPSWITCH = 0xab, RETURN = 0xb1,
+        INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7;
+
+    private final BytecodeProgram prog;
+    private boolean[] loopJump;    // the jumps back to the top of a while loop
+
+    // the constant pool
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> constants = new HashMap<>();
+    private int poolCount = 1;
+
+    private ClassGenerator(BytecodeProgram prog) {
+        this.prog = prog;
+    }
+
+    /** Generates, loads and instantiates the class for a program. */
+    static TieredProgram.Compiled generate(BytecodeProgram prog) {
+        byte[] bytes = new ClassGenerator(prog).classFile();
+        try {
+            Class<?> c = MethodHandles.lookup().defineHiddenClass(bytes, true).lookupClass();
+            return (TieredProgram.Compiled) c.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private byte[] classFile() {
+        try {
+            byte[] run = runMethod();
+            int thisClass = classRef("GeneratedProgram");
+            int superClass = classRef("java/lang/Object");
+            int compiled = classRef("TieredProgram$Compiled");
+            int init = methodRef("java/lang/Object", "<init>", "()V");
+            int code = utf8("Code");
+            int initName = utf8("<init>"), initDesc = utf8("()V");
+            int runName = utf8("run"), runDesc = utf8("(LRobot;I)V");
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolCount);
+            poolBytes.writeTo(out);
+            out.writeShort(0x0031);    // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(compiled);
+            out.writeShort(0);         // fields
+            out.writeShort(2);         // methods
+
+            byte[] initCode = { ALOAD_0, (byte) INVOKESPECIAL, (byte) (init >> 8), (byte) init, (byte) RETURN };
+            method(out, initName, initDesc, code, 1, 1, initCode);
+            method(out, runName, runDesc, code, prog.maxStack + 4, 4, run);
+            out.writeShort(0);         // attributes
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void method(DataOutputStream out, int name, int desc, int codeName,
+                        int maxStack, int maxLocals, byte[] code) throws IOException {
+        out.writeShort(0x0001);    // public
+        out.writeShort(name);
+        out.writeShort(desc);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);         // exception table
+        out.writeShort(0);         // attributes
+    }
+
+    //----------------------------------------------------------------
+    // The run method
+
+    /**
+     * Translates the program's code. The first pass works out where each of
+     * its instructions will start, so the second can write the branches.
+     */
+    private byte[] runMethod() throws IOException {
+        int[] code = prog.code;
+        // the tops of while loops: the targets of backward jumps
+        TreeSet<Integer> entries = new TreeSet<>();
+        loopJump = new boolean[code.length];
+        for (int pc = 0; pc < code.length; pc += length(code[pc])) {
+            if (code[pc] == BytecodeProgram.JMP && code[pc + 1] < pc) {
+                entries.add(code[pc + 1]);
+                loopJump[pc] = true;
+            }
+        }
+        int prologue = 16 + 8 * entries.size();    // frame into local 3, iload_2, lookupswitch
+        int[] start = new int[code.length + 1];
+        int at = prologue;
+        for (int pc = 0; pc < code.length; pc += length(code[pc])) {
+            start[pc] = at;
+            at += size(code, pc);
+        }
+        if (at > HUGE_METHOD) { throw new TooBigException(); }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(at);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(ALOAD_1);
+        out.writeByte(INVOKEVIRTUAL);
+        out.writeShort(methodRef(ROBOT, "frame", "()[I"));
+        out.writeByte(ASTORE_3);
+        out.writeByte(ILOAD_2);
+        out.writeByte(LOOKUPSWITCH);            // at 6
+        out.writeByte(0);                       // pad to a multiple of 4
+        out.writeInt(start[0] - 6);             // default: the start
+        out.writeInt(entries.size());
+        for (int entry : entries) {
+            out.writeInt(entry);
+            out.writeInt(start[entry] - 6);
+        }
+        for (int pc = 0; pc < code.length; pc += length(code[pc])) {
+            translate(out, code, pc, start);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** The length of an instruction in the program's code. */
+    private static int length(int op) {
+        return (op == BytecodeProgram.PUSH || op == BytecodeProgram.JMP || op == BytecodeProgram.JZ
+                || op == BytecodeProgram.JFALSE || op == BytecodeProgram.JTRUE
+                || op == BytecodeProgram.LOAD
+                || op == BytecodeProgram.STORE) ? 2 : 1;
+    }
+
+    /** The number of bytes translate(..) writes for an instruction. */
+    private int size(int[] code, int pc) {
+        int op = code[pc];
+        if (op == Op.SHIELDON || op == Op.SHIELDOFF) { return 5; }
+        if (Op.isAction(op) || Op.isSensor(op)) { return 4; }
+        switch (op) {
+        case BytecodeProgram.PUSH -> { return constantSize(code[pc + 1]); }
+        case BytecodeProgram.LOAD -> { return 2 + constantSize(code[pc + 1]); }
+        case BytecodeProgram.STORE -> { return 4 + constantSize(code[pc + 1]); }
+        case Op.ADD, Op.SUB, Op.MUL, Op.DIV, BytecodeProgram.HALT -> { return 1; }
+        case BytecodeProgram.MOVE_N, BytecodeProgram.WAIT_N -> { return 5; }
+        case BytecodeProgram.BARRELLR_N, BytecodeProgram.BARRELFB_N -> { return 5; }
+        case Op.LT, Op.GT, Op.EQ -> { return 8; }
+        case Op.NOT -> { return 2; }
+        case BytecodeProgram.JMP -> { return loopJump[pc] ? 8 : 3; }
+        case BytecodeProgram.JZ -> { return 3; }
+        case BytecodeProgram.JFALSE, BytecodeProgram.JTRUE -> { return 5; }
+        default -> throw new IllegalStateException("bad instruction " + op + " at " + pc);
+        }
+    }
+
+    private void translate(DataOutputStream out, int[] code, int pc, int[] start) throws IOException {
+        int op = code[pc];
+        int here = start[pc];
+        if (op < Op.COUNT && CALLS[op] != null) {
+            out.writeByte(ALOAD_1);
+            if (op == Op.SHIELDON || op == Op.SHIELDOFF) { out.writeByte(op == Op.SHIELDON ? ICONST_1 : ICONST_0); }
+            out.writeByte(INVOKEVIRTUAL);
+            out.writeShort(methodRef(ROBOT, CALLS[op][0], CALLS[op][1]));
+            return;
+        }
+        switch (op) {
+        case BytecodeProgram.PUSH -> constant(out, code[pc + 1]);
+        case BytecodeProgram.LOAD -> {
+            out.writeByte(ALOAD_3);
+            constant(out, code[pc + 1]);
+            out.writeByte(IALOAD);
+        }
+        case BytecodeProgram.STORE -> {
+            // the value is on the stack: put the frame and slot under it
+            out.writeByte(ALOAD_3);
+            out.writeByte(SWAP);
+            constant(out, code[pc + 1]);
+            out.writeByte(SWAP);
+            out.writeByte(IASTORE);
+        }
+        case BytecodeProgram.BARRELLR_N, BytecodeProgram.BARRELFB_N -> {
+            out.writeByte(ALOAD_1);
+            out.writeByte(SWAP);
+            out.writeByte(INVOKEVIRTUAL);
+            out.writeShort(methodRef(ROBOT, op == BytecodeProgram.BARRELLR_N ? "getBarrelLR" : "getBarrelFB", "(I)I"));
+        }
+        case BytecodeProgram.MOVE_N, BytecodeProgram.WAIT_N -> {
+            // n is on the stack: put the robot under it
+            out.writeByte(ALOAD_1);
+            out.writeByte(SWAP);
+            out.writeByte(INVOKEVIRTUAL);
+            out.writeShort(methodRef(ROBOT, op == BytecodeProgram.MOVE_N ? "move" : "idleWait", "(I)V"));
+        }
+        case Op.ADD -> out.writeByte(IADD);
+        case Op.SUB -> out.writeByte(ISUB);
+        case Op.MUL -> out.writeByte(IMUL);
+        case Op.DIV -> out.writeByte(IDIV);
+        case Op.LT, Op.GT, Op.EQ -> {
+            // if not (a op b) go to push 0, else push 1 and jump past it
+            out.writeByte(op == Op.LT ? IF_ICMPGE : op == Op.GT ? IF_ICMPLE : IF_ICMPNE);
+            out.writeShort(7);
+            out.writeByte(ICONST_1);
+            out.writeByte(GOTO);
+            out.writeShort(4);
+            out.writeByte(ICONST_0);
+        }
+        case Op.NOT -> { out.writeByte(ICONST_1); out.writeByte(IXOR); }
+        case BytecodeProgram.JMP -> {
+            if (loopJump[pc]) {
+                out.writeByte(ALOAD_1);
+                out.writeByte(INVOKEVIRTUAL);
+                out.writeShort(methodRef(ROBOT, "countIteration", "()Z"));
+                out.writeByte(POP);
+                here += 5;
+            }
+            branch(out, GOTO, here, start[code[pc + 1]]);
+        }
+        case BytecodeProgram.JZ -> branch(out, IFEQ, here, start[code[pc + 1]]);
+        case BytecodeProgram.JFALSE, BytecodeProgram.JTRUE -> {
+            out.writeByte(DUP);
+            branch(out, op == BytecodeProgram.JFALSE ? IFEQ : IFNE, here + 1, start[code[pc + 1]]);
+            out.writeByte(POP);
+        }
+        case BytecodeProgram.HALT -> out.writeByte(RETURN);
+        default -> throw new IllegalStateException("bad instruction " + op + " at " + pc);
+        }
+    }
+
+    /** Pushes an int constant, in the fewest bytes. */
+    private void constant(DataOutputStream out, int n) throws IOException {
+        if (n >= -1 && n <= 5) { out.writeByte(ICONST_0 + n); }
+        else if (n == (byte) n) { out.writeByte(BIPUSH); out.writeByte(n); }
+        else if (n == (short) n) { out.writeByte(SIPUSH); out.writeShort(n); }
+        else { out.writeByte(LDC_W); out.writeShort(integer(n)); }
+    }
+
+    /** The number of bytes constant(..) writes. */
+    private static int constantSize(int n) {
+        return (n >= -1 && n <= 5) ? 1 : (n == (byte) n) ? 2 : 3;
+    }
+
+    private static void branch(DataOutputStream out, int opcode, int from, int to) throws IOException {
+        out.writeByte(opcode);
+        out.writeShort(to - from);
+    }
+
+    //----------------------------------------------------------------
+    // The constant pool
+
+    private int utf8(String s) throws IOException {
+        Integer i = constants.get("U" + s);
+        if (i != null) { return i; }
+        pool.writeByte(1);
+        pool.writeUTF(s);
+        return add("U" + s);
+    }
+
+    private int classRef(String name) throws IOException {
+        Integer i = constants.get("C" + name);
+        if (i != null) { return i; }
+        int n = utf8(name);
+        pool.writeByte(7);
+        pool.writeShort(n);
+        return add("C" + name);
+    }
+
+    private int methodRef(String owner, String name, String desc) throws IOException {
+        String key = "M" + owner + "." + name + desc;
+        Integer i = constants.get(key);
+        if (i != null) { return i; }
+        int c = classRef(owner);
+        int n = utf8(name), d = utf8(desc);
+        pool.writeByte(12);
+        pool.writeShort(n);
+        pool.writeShort(d);
+        int nameAndType = poolCount++;
+        pool.writeByte(10);
+        pool.writeShort(c);
+        pool.writeShort(nameAndType);
+        return add(key);
+    }
+
+    private int integer(int value) throws IOException {
+        Integer i = constants.get("I" + value);
+        if (i != null) { return i; }
+        pool.writeByte(3);
+        pool.writeInt(value);
+        return add("I" + value);
+    }
+
+    private int add(String key) {
+        constants.put(key, poolCount);
+        return poolCount++;
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * The ways a parsed program can be executed. Every engine gives the same
+ * behaviour; they differ only in speed (ADAPTIVE may read the sensors in a
+ * different order, which makes no difference, as reading a sensor has no
+ * effect). World prepares each program for the engine in RoboGame.engine
+ * when the program is loaded.
+ */
+public enum Engine {
+    /**
+     * Walk a tree of nodes: the Parser's tree, rewritten by
+     * Parser.optimize(..) without its wrapper nodes.
+     */
+    TREE,
+    /**
+     * Walk the tree, with each and and or learning which of its operands
+     * to test first (see Parser.ADAPTIVE).
+     */
+    ADAPTIVE,
+    /** Walk the compact FlatProgram arrays. */
+    FLAT,
+    /** Compile to a BytecodeProgram and run it on its stack machine. */
+    BYTECODE,
+    /**
+     * Start on the stack machine, then compile to a JVM class once the
+     * program has run RoboGame.compileThreshold statements.
+     */
+    TIERED;
+
+    /**
+     * Turns a parsed program into the form this engine runs. Every engine
+     * starts from the program as rewritten by Parser.optimize(..). This is
+     * the last step before the program runs: the result is for one robot,
+     * and is neither cached nor shared, since an ADAPTIVE program changes
+     * as it runs.
+     */
+    public ProgramNode prepare(ProgramNode prog) {
+        return prepareOptimized(Parser.optimize(prog));
+    }
+
+    /**
+     * As prepare(..), for a program that has already been through
+     * Parser.optimize(..), so it isn't optimized again.
+     */
+    public ProgramNode prepareOptimized(ProgramNode tree) {
+        switch (this) {
+        case FLAT -> {
+            FlatProgram.Builder flat = new FlatProgram.Builder();
+            Parser.emit(tree, flat);
+            return flat.build();
+        }
+        case TREE -> { return tree; }
+        case ADAPTIVE -> { return Parser.adaptive(tree); }
+        case BYTECODE -> { return BytecodeProgram.compile(tree); }
+        case TIERED -> { return new TieredProgram(BytecodeProgram.compile(tree), RoboGame.compileThreshold); }
+        default -> throw new IllegalStateException("unknown engine " + this);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+/**
+ * A Lexer that reads a program file directly as ASCII bytes, with no
+ * charset decoding. Files up to MAP_LIMIT bytes are memory-mapped; bigger
+ * files are streamed through one fixed size buffer. Either way the lexer
+ * itself only holds a WINDOW sized block of characters, so memory stays
+ * bounded however big the file is.
+ */
+public class FileLexer extends Lexer {
+
+    static final int WINDOW = 1 << 16;
+    static final long MAP_LIMIT = 1 << 30;
+
+    private final FileChannel channel;
+    private final ByteBuffer bytes;
+    private final boolean streaming;
+    private final MessageDigest digest;    // of the bytes read so far, or null
+
+    /**
+     * The channel must stay open until the whole file has been lexed
+     * (when it is mapped it may be closed straight away).
+     */
+    public FileLexer(FileChannel channel) throws IOException {
+        this(channel, null);
+    }
+
+    /**
+     * As FileLexer(channel), also adding the file's bytes to the digest as
+     * they are read (if it is not null), so that once the whole file has
+     * been lexed the digest is of exactly the bytes that were lexed.
+     */
+    public FileLexer(FileChannel channel, MessageDigest digest) throws IOException {
+        super(WINDOW);
+        this.channel = channel;
+        this.digest = digest;
+        long size = channel.size();
+        streaming = size > MAP_LIMIT;
+        if (streaming) {
+            bytes = ByteBuffer.allocateDirect(WINDOW);
+            bytes.flip();
+        } else {
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (digest != null) { digest.update(bytes.duplicate()); }
+        }
+        next();
+    }
+
+    /**
+     * Lexes bytes that are already in memory or mapped, from their position
+     * to their limit.
+     */
+    public FileLexer(ByteBuffer bytes) {
+        super(WINDOW);
+        this.channel = null;
+        this.digest = null;
+        this.bytes = bytes;
+        streaming = false;
+        next();
+    }
+
+    @Override
+    protected int read(char[] buf, int off, int len) {
+        if (!bytes.hasRemaining() && !(streaming && fill())) {
+            return -1;
+        }
+        int n = Math.min(len, bytes.remaining());
+        ByteBuffer b = bytes;
+        for (int i = 0; i < n; i++) {
+            buf[off + i] = (char) (b.get() & 0xFF);
+        }
+        return n;
+    }
+
+    /**
+     * Reads the next block of the file into the stream buffer.
+     */
+    private boolean fill() {
+        try {
+            bytes.clear();
+            int n = channel.read(bytes);
+            bytes.flip();
+            if (digest != null) { digest.update(bytes.duplicate()); }
+            return n > 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+import java.util.Arrays;
+
+/**
+ * A compact form of a parsed program: the whole tree is held in four
+ * parallel int arrays instead of one object per node. Node 0 is the PROG
+ * node; a child or sibling of -1 means there is none. The literal of a
+ * VAR node is its slot, and names holds the variables' names by slot.
+ *
+ * Built directly by the Parser (see Parser.parseFlat) and executed
+ * directly, without ever creating the object tree. The arrays are never
+ * changed after building, so like the tree it can be shared between threads.
+ */
+public class FlatProgram implements ProgramNode {
+
+    final int[] op;
+    final int[] child;
+    final int[] sibling;
+    final int[] literal;
+    final String[] names;
+
+    private FlatProgram(int[] op, int[] child, int[] sibling, int[] literal, String[] names) {
+        this.op = op;
+        this.child = child;
+        this.sibling = sibling;
+        this.literal = literal;
+        this.names = names;
+    }
+
+    /** The number of nodes in the program. */
+    public int size() {
+        return op.length;
+    }
+
+    public void execute(Robot robot) {
+        robot.newFrame(names.length);
+        execute(0, robot);
+    }
+
+    private void execute(int n, Robot robot) {
+        int c = child[n];
+        switch (op[n]) {
+        case Op.PROG, Op.BLOCK -> {
+            for (; c >= 0; c = sibling[c]) { execute(c, robot); }
+        }
+        case Op.LOOP -> { execute(c, robot); }
+        case Op.IF -> {
+            int block = sibling[c];
+            int rest = sibling[block];
+            if (test(c, robot)) {
+                execute(block, robot);
+            } else if (rest >= 0 && op[rest] == Op.ELIF) {
+                for (; rest >= 0 && op[rest] == Op.ELIF; rest = sibling[rest]) {
+                    execute(rest, robot);
+                }
+            } else if (rest >= 0) {
+                execute(rest, robot);
+            }
+        }
+        case Op.ELIF -> {
+            if (test(c, robot)) { execute(sibling[c], robot); }
+        }
+        case Op.WHILE -> {
+            while (test(c, robot)) {
+                execute(sibling[c], robot);
+                robot.countIteration();
+            }
+        }
+        case Op.MOVE -> {
+            if (c < 0) { robot.move(); }
+            else { robot.move(evaluate(c, robot)); }
+        }
+        case Op.WAIT -> {
+            if (c < 0) { robot.idleWait(); }
+            else { robot.idleWait(evaluate(c, robot)); }
+        }
+        case Op.TURNL -> { robot.turnLeft(); }
+        case Op.TURNR -> { robot.turnRight(); }
+        case Op.TAKEFUEL -> { robot.takeFuel(); }
+        case Op.TURNAROUND -> { robot.turnAround(); }
+        case Op.SHIELDON -> { robot.setShield(true); }
+        case Op.SHIELDOFF -> { robot.setShield(false); }
+        case Op.ASSIGN -> { robot.frame()[literal[c]] = evaluate(sibling[c], robot); }
+        default -> throw new IllegalStateException("not a statement: " + Op.name(op[n]));
+        }
+    }
+
+    private int evaluate(int n, Robot robot) {
+        int c = child[n];
+        switch (op[n]) {
+        case Op.NUM -> { return literal[n]; }
+        case Op.VAR -> { return robot.frame()[literal[n]]; }
+        case Op.FUELLEFT -> { return robot.getFuel(); }
+        case Op.OPPLR -> { return robot.getOpponentLR(); }
+        case Op.OPPFB -> { return robot.getOpponentFB(); }
+        case Op.NUMBARRELS -> { return robot.numBarrels(); }
+        case Op.BARRELLR -> { return (c < 0) ? robot.getClosestBarrelLR() : robot.getBarrelLR(evaluate(c, robot)); }
+        case Op.BARRELFB -> { return (c < 0) ? robot.getClosestBarrelFB() : robot.getBarrelFB(evaluate(c, robot)); }
+        case Op.WALLDIST -> { return robot.getDistanceToWall(); }
+        case Op.ADD -> { return evaluate(c, robot) + evaluate(sibling[c], robot); }
+        case Op.SUB -> { return evaluate(c, robot) - evaluate(sibling[c], robot); }
+        case Op.MUL -> { return evaluate(c, robot) * evaluate(sibling[c], robot); }
+        case Op.DIV -> { return evaluate(c, robot) / evaluate(sibling[c], robot); }
+        default -> throw new IllegalStateException("not an expression: " + Op.name(op[n]));
+        }
+    }
+
+    private boolean test(int n, Robot robot) {
+        int c = child[n];
+        switch (op[n]) {
+        case Op.LT -> { return evaluate(c, robot) < evaluate(sibling[c], robot); }
+        case Op.GT -> { return evaluate(c, robot) > evaluate(sibling[c], robot); }
+        case Op.EQ -> { return evaluate(c, robot) == evaluate(sibling[c], robot); }
+        case Op.AND -> { return test(c, robot) && test(sibling[c], robot); }
+        case Op.OR -> { return test(c, robot) || test(sibling[c], robot); }
+        case Op.NOT -> { return !test(c, robot); }
+        default -> throw new IllegalStateException("not a condition: " + Op.name(op[n]));
+        }
+    }
+
+    /**
+     * Reports the program's structure to a builder, as the Parser did when
+     * it was built. Walks the arrays without recursion.
+     */
+    void emit(AstBuilder b) {
+        int[] path = new int[16];
+        int depth = 0;
+        int n = 0;
+        for (;;) {
+            if (op[n] == Op.NUM) {
+                b.literal(literal[n]);
+            } else if (op[n] == Op.VAR) {
+                b.variable(literal[n], names[literal[n]]);
+            } else {
+                b.open(op[n]);
+                if (child[n] >= 0) {
+                    if (depth == path.length) { path = Arrays.copyOf(path, depth * 2); }
+                    path[depth++] = n;
+                    n = child[n];
+                    continue;
+                }
+                b.close();
+            }
+            // on to the next sibling, closing the nodes that have none left
+            while (sibling[n] < 0) {
+                if (depth == 0) { return; }
+                n = path[--depth];
+                b.close();
+            }
+            n = sibling[n];
+        }
+    }
+
+    public String toString() {
+        return ProgramPrinter.toString(this);
+    }
+
+    //----------------------------------------------------------------
+
+    /**
+     * Builds a FlatProgram from the Parser's events, appending each node to
+     * the arrays as it is opened and linking it to its parent's last child.
+     */
+    static class Builder implements AstBuilder {
+        private int[] op = new int[64], child = new int[64], sibling = new int[64], literal = new int[64];
+        private int size;
+        private String[] names = new String[0];
+
+        // the nodes that are open, and the last child added to each
+        private int[] open = new int[16], last = new int[16];
+        private int depth;
+
+        public void open(int code) {
+            int n = add(code, 0);
+            if (depth == open.length) {
+                open = Arrays.copyOf(open, depth * 2);
+                last = Arrays.copyOf(last, depth * 2);
+            }
+            open[depth] = n;
+            last[depth] = -1;
+            depth++;
+        }
+
+        public void literal(int value) {
+            add(Op.NUM, value);
+        }
+
+        public void variable(int slot, String name) {
+            add(Op.VAR, slot);
+            if (slot >= names.length) { names = Arrays.copyOf(names, slot + 1); }
+            names[slot] = name;
+        }
+
+        public void close() {
+            depth--;
+        }
+
+        private int add(int code, int value) {
+            if (size == op.length) {
+                int cap = size * 2;
+                op = Arrays.copyOf(op, cap);
+                child = Arrays.copyOf(child, cap);
+                sibling = Arrays.copyOf(sibling, cap);
+                literal = Arrays.copyOf(literal, cap);
+            }
+            int n = size++;
+            op[n] = code;
+            literal[n] = value;
+            child[n] = -1;
+            sibling[n] = -1;
+            if (depth > 0) {
+                int parent = depth - 1;
+                if (last[parent] < 0) { child[open[parent]] = n; }
+                else { sibling[last[parent]] = n; }
+                last[parent] = n;
+            }
+            return n;
+        }
+
+        FlatProgram build() {
+            return new FlatProgram(Arrays.copyOf(op, size), Arrays.copyOf(child, size),
+                                   Arrays.copyOf(sibling, size), Arrays.copyOf(literal, size), names);
+        }
+    }
+}
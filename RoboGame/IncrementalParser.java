@@ -0,0 +1,145 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses successive versions of the same program, as it is being edited,
+ * reusing the nodes of every statement that the edit did not touch.
+ *
+ * Each version is compared with the last one that parsed to find the one
+ * region that changed (everything between the common prefix and the common
+ * suffix). The parser then runs over the new text as usual, but whenever it
+ * is about to parse a statement that lies wholly in the unchanged prefix or
+ * suffix, the old node is added instead and the lexer skips past it. So an
+ * edit inside a large while loop re-parses the loop header and the one
+ * statement that changed, not the whole body.
+ *
+ * A statement that uses a variable is always parsed again: the Parser
+ * numbers variables in the order they appear, so an edit before it can
+ * change its variables' slots.
+ *
+ * Nodes are immutable, so the trees of different versions can share them.
+ * Not thread safe: use one IncrementalParser per thread (the editor runs
+ * it on a single background thread).
+ */
+public class IncrementalParser {
+
+    /**
+     * The node of a statement that started at some offset, the offset of the
+     * token after it, and the end of that token.
+     */
+    private record Span(long end, long lookEnd, Object node) {}
+
+    private String text = "";
+    private Map<Long, Span> spans = new HashMap<>();
+    private int parsed, reused;
+
+    /**
+     * Parses the given version of the program.
+     * Throws ParserFailureException if it is invalid; the next version is
+     * then still compared with the last one that parsed.
+     */
+    public ProgramNode parse(String newText) {
+        Builder b = new Builder(text, newText, spans);
+        Parser.parseProg(new Lexer(newText), b);
+        text = newText;
+        spans = b.newSpans;
+        parsed = b.parsed;
+        reused = b.reused;
+        return b.tree.result();
+    }
+
+    /** The number of statements the last successful parse had to parse. */
+    public int parsed() {
+        return parsed;
+    }
+
+    /** The number of statements the last successful parse reused. */
+    public int reused() {
+        return reused;
+    }
+
+    //----------------------------------------------------------------
+
+    /**
+     * A TreeBuilder that also records where each statement is, and offers
+     * the old node for a statement in an unchanged part of the text.
+     */
+    private static final class Builder implements AstBuilder {
+        final Parser.TreeBuilder tree = new Parser.TreeBuilder();
+        final Map<Long, Span> newSpans = new HashMap<>();
+        int parsed, reused;
+
+        // start offsets of the statements being parsed, and the number of
+        // variables seen before each
+        private final List<Long> starts = new ArrayList<>();
+        private final List<Integer> variablesBefore = new ArrayList<>();
+        private int variables;
+
+        Builder(String oldText, String newText, Map<Long, Span> oldSpans) {
+            int prefix = 0;
+            int max = Math.min(oldText.length(), newText.length());
+            while (prefix < max && oldText.charAt(prefix) == newText.charAt(prefix)) { prefix++; }
+            int suffix = 0;
+            max -= prefix;
+            while (suffix < max && oldText.charAt(oldText.length() - 1 - suffix)
+                                   == newText.charAt(newText.length() - 1 - suffix)) {
+                suffix++;
+            }
+            // the changed region is [prefix, oldEnd) in the old text
+            // and [prefix, newEnd) in the new one
+            int oldEnd = oldText.length() - suffix;
+            int newEnd = newText.length() - suffix;
+
+            // carry over every statement that is still reusable, including
+            // those nested in statements that will have to be parsed again
+            long shift = newEnd - oldEnd;
+            for (Map.Entry<Long, Span> e : oldSpans.entrySet()) {
+                long start = e.getKey();
+                Span span = e.getValue();
+                if (span.lookEnd < prefix) {
+                    newSpans.put(start, span);
+                } else if (start >= oldEnd) {
+                    newSpans.put(start + shift, new Span(span.end + shift, span.lookEnd + shift, span.node));
+                }
+            }
+        }
+
+        public void open(int op) { tree.open(op); }
+        public void literal(int value) { tree.literal(value); }
+        public void close() { tree.close(); }
+
+        public void variable(int slot, String name) {
+            variables++;
+            tree.variable(slot, name);
+        }
+
+        /**
+         * A statement can be reused if its text, and the token after it
+         * (which decides where an if ends), are the same as before: that is,
+         * if it was carried over from the last version.
+         */
+        public boolean reuseStatement(Lexer s) {
+            long at = s.offset();
+            Span old = newSpans.get(at);
+            if (old == null) {
+                starts.add(at);
+                variablesBefore.add(variables);
+                return false;
+            }
+            tree.push(old.node);
+            s.skipTo(old.end);
+            reused++;
+            return true;
+        }
+
+        public void endStatement(Lexer s) {
+            long start = starts.remove(starts.size() - 1);
+            if (variablesBefore.remove(variablesBefore.size() - 1) == variables) {
+                newSpans.put(start, new Span(s.offset(), s.endOffset(), tree.last()));
+            }
+            parsed++;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+import java.util.Arrays;
+
+/**
+ * A hand written, single pass tokenizer for robot programs.
+ * It splits the input the same way the old Scanner delimiter did
+ * (whitespace, and around each of { } ( ) , ; =) but never runs a regex:
+ * keywords are found with a perfect hash table, integer literals are
+ * decoded while they are scanned, a $ followed by a name (a letter, then
+ * letters, digits or _) is a VAR, and anything else becomes a WORD.
+ *
+ * The lexer always holds one token of lookahead, which is what the
+ * parser's require(..) and checkFor(..) look at.
+ *
+ * By default the whole input is in one array. Subclasses can instead lex
+ * through a fixed size window by overriding read(..); only the current
+ * token is kept when the window slides, so memory stays bounded.
+ */
+public class Lexer {
+
+    /** Bit mask of the characters that Scanner treats as whitespace (\s). */
+    private static final long WHITESPACE = (1L << ' ') | (1L << '\t') | (1L << '\n')
+        | (1L << 0x0B) | (1L << '\f') | (1L << '\r');
+
+    private static final Token[] PUNCTUATION = new Token[128];
+
+    // Perfect hash table for the keywords, built once when the class is loaded.
+    private static final int TABLE_BITS = 7;
+    private static final Token[] KEYWORDS = new Token[1 << TABLE_BITS];
+    private static final int SEED;
+
+    static {
+        for (Token t : Token.values()) {
+            if (t.text != null && !t.isKeyword()) { PUNCTUATION[t.text.charAt(0)] = t; }
+        }
+        int seed = 0x9E3779B9;
+        while (!tryFill(seed)) { seed += 2; }
+        SEED = seed;
+    }
+
+    /**
+     * Tries to place every keyword in the table using the given multiplier.
+     * Returns false (leaving the table empty) if two keywords collide.
+     */
+    private static boolean tryFill(int seed) {
+        Arrays.fill(KEYWORDS, null);
+        for (Token t : Token.values()) {
+            if (!t.isKeyword()) { continue; }
+            int slot = slot(t.text.hashCode(), seed);
+            if (KEYWORDS[slot] != null) {
+                Arrays.fill(KEYWORDS, null);
+                return false;
+            }
+            KEYWORDS[slot] = t;
+        }
+        return true;
+    }
+
+    private static int slot(int hash, int seed) {
+        return (hash * seed) >>> (32 - TABLE_BITS);
+    }
+
+    //----------------------------------------------------------------
+
+    private char[] buf;
+    private int pos;
+    private int limit;
+    private long base;     // offset in the input of buf[0]
+    private final boolean windowed;
+
+    // the current (lookahead) token
+    private Token token;
+    private int value;
+    private int start, end;
+    private int line = 1;
+    private long lineStart = 0;
+    private int tokenLine, tokenColumn;
+
+    public Lexer(CharSequence src) {
+        this(toChars(src), 0, src.length());
+    }
+
+    public Lexer(char[] src, int from, int to) {
+        buf = src;
+        pos = from;
+        lineStart = from;
+        limit = to;
+        windowed = false;
+        scan();
+    }
+
+    /**
+     * For subclasses that supply the input through read(..) into a window
+     * of the given size. The subclass must call next() once it is ready,
+     * to read the first token.
+     */
+    protected Lexer(int windowSize) {
+        buf = new char[windowSize];
+        windowed = true;
+    }
+
+    /**
+     * Reads up to len more characters of input into buf[off..].
+     * Returns the number read, or -1 at the end of the input.
+     * The default has nothing more to read.
+     */
+    protected int read(char[] buf, int off, int len) {
+        return -1;
+    }
+
+    /**
+     * Called when the window is used up. Moves buf[keep..limit) to the front
+     * of the window (growing it only if a single token fills all of it) and
+     * reads more input after it. Returns false at the end of the input.
+     */
+    private boolean refill(int keep) {
+        if (!windowed) { return false; }
+        int kept = limit - keep;
+        if (kept == buf.length) {
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+        System.arraycopy(buf, keep, buf, 0, kept);
+        base += keep;
+        pos -= keep;
+        start -= keep;
+        limit = kept;
+        int n = read(buf, limit, buf.length - limit);
+        if (n <= 0) { return false; }
+        limit += n;
+        return true;
+    }
+
+    private static char[] toChars(CharSequence src) {
+        if (src instanceof String) { return ((String) src).toCharArray(); }
+        char[] chars = new char[src.length()];
+        for (int i = 0; i < chars.length; i++) { chars[i] = src.charAt(i); }
+        return chars;
+    }
+
+    /** The kind of the next token, without consuming it. */
+    public Token peek() { return token; }
+
+    /** Whether there are any tokens left. */
+    public boolean hasNext() { return token != Token.EOF; }
+
+    /** The value of the next token, if it is a NUM. */
+    public int value() { return value; }
+
+    /** The source text of the next token (empty at the end of the input). */
+    public String text() { return new String(buf, start, end - start); }
+
+    /** Line (from 1) and column (from 1) where the next token starts. */
+    public int line() { return tokenLine; }
+    public int column() { return tokenColumn; }
+
+    /** The offset in the input where the next token starts. */
+    public long offset() { return base + start; }
+
+    /** The offset in the input just after the next token. */
+    public long endOffset() { return base + end; }
+
+    /**
+     * Skips forward to the given offset, which must be the start of a token
+     * (or the end of the input) and still inside the current window, then
+     * reads the token there. Lines are counted as if it had been lexed.
+     */
+    public void skipTo(long offset) {
+        int to = (int) (offset - base);
+        if (to < start || to > limit) {
+            throw new IllegalArgumentException("can't skip to " + offset);
+        }
+        for (int p = start; p < to; p++) {
+            if (buf[p] == '\n') {
+                line++;
+                lineStart = base + p + 1;
+            }
+        }
+        pos = to;
+        scan();
+    }
+
+    /**
+     * The text of the next n tokens (starting with the one peek() returns),
+     * each preceded by a space, without consuming them; or null if that
+     * would mean reading more of the input first.
+     */
+    String upcoming(int n) {
+        if (token == Token.EOF) { return ""; }
+        StringBuilder text = new StringBuilder().append(' ').append(buf, start, end - start);
+        int p = pos;
+        for (int i = 1; i < n; i++) {
+            while (p < limit && isWhitespace(buf[p])) { p++; }
+            if (p == limit) { return windowed ? null : text.toString(); }
+            int from = p;
+            if (buf[p] < 128 && PUNCTUATION[buf[p]] != null) {
+                p++;
+            } else {
+                while (p < limit && !isWhitespace(buf[p]) && (buf[p] >= 128 || PUNCTUATION[buf[p]] == null)) { p++; }
+                if (p == limit && windowed) { return null; }
+            }
+            text.append(' ').append(buf, from, p - from);
+        }
+        return text.toString();
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c <= ' ' && (WHITESPACE & (1L << c)) != 0;
+    }
+
+    /** Consumes the next token. */
+    public void next() {
+        if (token != Token.EOF) { scan(); }
+    }
+
+    /**
+     * Reads the token following pos into token/value/start/end.
+     */
+    private void scan() {
+        char[] b = buf;
+        int p = pos;
+        // skip whitespace
+        for (;;) {
+            if (p == limit) {
+                pos = start = p;
+                boolean more = refill(p);
+                b = buf;
+                p = pos;
+                if (!more) { break; }
+            }
+            char c = b[p];
+            if (c > ' ' || (WHITESPACE & (1L << c)) == 0) { break; }
+            if (c == '\n') {
+                line++;
+                lineStart = base + p + 1;
+            }
+            p++;
+        }
+        start = p;
+        tokenLine = line;
+        tokenColumn = (int) (base + p - lineStart + 1);
+        if (p == limit) {
+            token = Token.EOF;
+            end = pos = p;
+            return;
+        }
+        char c = b[p];
+        if (c < 128 && PUNCTUATION[c] != null) {
+            token = PUNCTUATION[c];
+            end = pos = p + 1;
+            return;
+        }
+        // a word: everything up to the next whitespace or punctuation character
+        int hash = 0;
+        for (;;) {
+            if (p == limit) {
+                pos = p;
+                boolean more = refill(start);
+                b = buf;
+                p = pos;
+                if (!more) { break; }
+            }
+            c = b[p];
+            if (c <= ' ' && (WHITESPACE & (1L << c)) != 0) { break; }
+            if (c < 128 && PUNCTUATION[c] != null) { break; }
+            hash = 31 * hash + c;
+            p++;
+        }
+        end = pos = p;
+        token = classify(hash);
+    }
+
+    /**
+     * Decides whether the word in buf[start..end) is a keyword, a number
+     * (-?[1-9][0-9]*|0 that fits in an int), a variable or some other word.
+     */
+    private Token classify(int hash) {
+        Token k = KEYWORDS[slot(hash, SEED)];
+        if (k != null && matches(k.text)) { return k; }
+        if (buf[start] == '$') { return isName(start + 1) ? Token.VAR : Token.WORD; }
+
+        int p = start;
+        boolean negative = buf[p] == '-';
+        if (negative) { p++; }
+        if (p == end || buf[p] < '0' || buf[p] > '9') { return Token.WORD; }
+        if (buf[p] == '0') {
+            if (negative || end - start != 1) { return Token.WORD; }
+            value = 0;
+            return Token.NUM;
+        }
+        long n = 0;
+        for (; p < end; p++) {
+            char c = buf[p];
+            if (c < '0' || c > '9') { return Token.WORD; }
+            n = n * 10 + (c - '0');
+            if (n > 1L + Integer.MAX_VALUE) { return Token.WORD; }
+        }
+        n = negative ? -n : n;
+        if (n > Integer.MAX_VALUE) { return Token.WORD; }
+        value = (int) n;
+        return Token.NUM;
+    }
+
+    /** Whether buf[from..end) is a letter followed by letters, digits and _. */
+    private boolean isName(int from) {
+        if (from == end || !isLetter(buf[from])) { return false; }
+        for (int p = from + 1; p < end; p++) {
+            char c = buf[p];
+            if (!isLetter(c) && (c < '0' || c > '9') && c != '_') { return false; }
+        }
+        return true;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private boolean matches(String text) {
+        if (text.length() != end - start) { return false; }
+        for (int i = 0; i < text.length(); i++) {
+            if (buf[start + i] != text.charAt(i)) { return false; }
+        }
+        return true;
+    }
+}
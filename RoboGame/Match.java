@@ -0,0 +1,163 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * A game between two robot programs, played without the GUI and as fast
+ * as it can go. Both robots are stepped (see Robot.step()) on the calling
+ * thread, a tick at a time, and the match decides for itself when the
+ * game is over: when a robot runs out of fuel, when both programs have
+ * finished, or after a number of ticks. The robots are quiet (see
+ * Robot.setQuiet(..)), so a match prints nothing.
+ */
+public class Match {
+
+    public static final int DEFAULT_MAX_TICKS = 10000;
+
+    /** Why a match ended. */
+    public enum End { OUT_OF_FUEL, FINISHED, MAX_TICKS }
+
+    /**
+     * How a match went. The winner is 1 or 2, or 0 for a draw: a robot that
+     * runs out of fuel loses, and otherwise the one with more fuel wins.
+     */
+    public record Result(int winner, End end, int ticks, int fuel1, int fuel2) {}
+
+    private final ProgramNode program1, program2;
+    private final int maxTicks;
+    private final Random rand;
+
+    /** A match between two programs (either may be null, for the default program). */
+    public Match(ProgramNode program1, ProgramNode program2) {
+        this(program1, program2, DEFAULT_MAX_TICKS, new Random());
+    }
+
+    /**
+     * A match that stops after maxTicks, with its fuel put out as rand
+     * says (so a match with a seeded Random plays out the same every time).
+     */
+    public Match(ProgramNode program1, ProgramNode program2, int maxTicks, Random rand) {
+        this.program1 = program1;
+        this.program2 = program2;
+        this.maxTicks = maxTicks;
+        this.rand = rand;
+    }
+
+    /** Plays the match, in a world of its own. */
+    public Result play() {
+        World world = setUp();
+        Robot robot1 = world.getRobot(1), robot2 = world.getRobot(2);
+        world.begin();
+        // the robots choose as soon as they can see the world, as their threads would
+        step(robot1);
+        step(robot2);
+        int ticks = 0;
+        End end = null;
+        while (end == null) {
+            world.tick();
+            ticks++;
+            step(robot1);
+            step(robot2);
+            end = ended(world, ticks);
+        }
+        return result(world, end, ticks);
+    }
+
+    /**
+     * Plays the match as the GUI does, with each robot's program on a thread
+     * of its own and World.updateWorld() doing the ticks, but ending when
+     * play() would. A match gives the same Result either way, which
+     * MatchTester checks; this is slower, and only there for that check.
+     */
+    Result playOnThreads() {
+        World world = setUp();
+        world.start();
+        int ticks = 0;
+        End end = null;
+        while (end == null) {
+            world.updateWorld();
+            ticks++;
+            end = ended(world, ticks);
+        }
+        Result result = result(world, end, ticks);    // before stop() cancels the robots
+        world.stop();
+        return result;
+    }
+
+    private World setUp() {
+        World world = new World(rand);
+        Robot robot1 = world.getRobot(1), robot2 = world.getRobot(2);
+        robot1.setQuiet(true);    // no one is watching
+        robot2.setQuiet(true);
+        if (program1 != null) { robot1.setProgram(program1); }
+        if (program2 != null) { robot2.setProgram(program2); }
+        return world;
+    }
+
+    /** Why the match is over after the given tick, or null if it isn't. */
+    private End ended(World world, int ticks) {
+        Robot robot1 = world.getRobot(1), robot2 = world.getRobot(2);
+        if (robot1.isDead() || robot2.isDead()) { return End.OUT_OF_FUEL; }
+        if (robot1.isFinished() && robot2.isFinished()) { return End.FINISHED; }
+        if (ticks >= maxTicks) { return End.MAX_TICKS; }
+        return null;
+    }
+
+    private static Result result(World world, End end, int ticks) {
+        Robot robot1 = world.getRobot(1), robot2 = world.getRobot(2);
+        WorldSnapshot last = world.snapshot();
+        int fuel1 = last.robot(1).fuel(), fuel2 = last.robot(2).fuel();
+        return new Result(winner(robot1.isDead(), robot2.isDead(), fuel1, fuel2), end, ticks, fuel1, fuel2);
+    }
+
+    /**
+     * Runs a robot's program to its next action, unless it still has one to
+     * finish. A program that stops early, by going over its loop budget or
+     * by failing (dividing by zero, say), has finished, as it would have in
+     * the GUI.
+     */
+    private static void step(Robot robot) {
+        if (robot.isFinished() || robot.isBusy()) { return; }
+        boolean more;
+        try {
+            more = robot.step();
+        } catch (RuntimeException e) {
+            more = false;
+        }
+        if (!more) { robot.setFinished(true); }
+    }
+
+    private static int winner(boolean dead1, boolean dead2, int fuel1, int fuel2) {
+        if (dead1 != dead2) { return dead1 ? 2 : 1; }
+        if (dead1 || fuel1 == fuel2) { return 0; }
+        return (fuel1 > fuel2) ? 1 : 2;
+    }
+
+    /**
+     * Plays a match between two program files and prints how it went:
+     * java Match program1 program2 [maxTicks [seed]]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: java Match program1 program2 [maxTicks [seed]]");
+            return;
+        }
+        ProgramNode program1, program2;
+        try {
+            program1 = load(args[0]);
+            program2 = load(args[1]);
+        } catch (ParserFailureException e) {
+            System.out.println("Parser error:");
+            System.out.println(e.getMessage());
+            return;
+        }
+        int maxTicks = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_MAX_TICKS;
+        Random rand = (args.length > 3) ? new Random(Long.parseLong(args[3])) : new Random();
+        System.out.println(new Match(program1, program2, maxTicks, rand).play());
+    }
+
+    private static ProgramNode load(String file) throws IOException {
+        ProgramNode prog = ProgramCache.shared().load(new File(file).toPath());
+        return (prog == null) ? null : RoboGame.engine.prepare(prog);
+    }
+}
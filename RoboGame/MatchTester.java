@@ -0,0 +1,70 @@
+import java.util.Random;
+
+public class MatchTester{
+
+    /**
+     * For testing that a Match ends and scores a game just as the GUI would:
+     * plays each pair of programs below, with each engine and a number of
+     * seeds, both by stepping the robots (Match.play()) and on the robots'
+     * own threads (Match.playOnThreads()), and reports any seed on which the
+     * two Results differ. The programs chase each other, and barrels, with
+     * move(n), so that the robots often try to move into the same square.
+     *
+     * Calling main with an argument plays that many seeds (20 by default).
+     */
+    public static void main(String[] args) {
+        int seeds = (args.length > 0) ? Integer.parseInt(args[0]) : 20;
+        Parser parser = new Parser();
+        System.out.println("=================");
+        int bad = 0;
+        for (String[] pair : programs) {
+            for (Engine engine : Engine.values()) {
+                System.out.println(pair[2] + ", " + engine + ":");
+                for (long seed = 1; seed <= seeds; seed++) {
+                    Match.Result stepped = match(parser, pair, engine, seed).play();
+                    Match.Result threaded = match(parser, pair, engine, seed).playOnThreads();
+                    if (!stepped.equals(threaded)) {
+                        bad++;
+                        System.out.println("BAD, seed " + seed + ": stepped " + stepped + ", on threads " + threaded);
+                    }
+                }
+            }
+        }
+        System.out.println((bad == 0) ? "OK, every match played out the same both ways" : bad + " matches played out differently");
+        System.out.println("Done");
+    }
+
+    /**
+     * A match between a pair of programs, each prepared afresh, since a
+     * prepared program (an ADAPTIVE one, say) may only be run by one robot.
+     */
+    private static Match match(Parser parser, String[] pair, Engine engine, long seed) {
+        return new Match(engine.prepare(parser.parse(pair[0])), engine.prepare(parser.parse(pair[1])),
+                         2000, new Random(seed));
+    }
+
+    private static final String CHASE =
+        "while (gt(fuelLeft, 0)) {"
+        + "  if (and(eq(oppLR, 0), eq(oppFB, 1))) { takeFuel; }"
+        + "  elif (gt(oppFB, 0)) { move(add(oppFB, 2)); }"
+        + "  elif (lt(oppLR, 0)) { turnL; }"
+        + "  elif (gt(oppLR, 0)) { turnR; }"
+        + "  else { turnAround; }"
+        + "}";
+
+    private static final String BARRELS =
+        "while (gt(fuelLeft, 0)) {"
+        + "  if (eq(numBarrels, 0)) { wait(2); }"
+        + "  elif (and(eq(barrelLR, 0), eq(barrelFB, 0))) { takeFuel; }"
+        + "  elif (gt(barrelFB, 0)) { move(barrelFB); }"
+        + "  elif (lt(barrelLR, 0)) { turnL; }"
+        + "  elif (gt(barrelLR, 0)) { turnR; }"
+        + "  else { turnAround; }"
+        + "}";
+
+    private static final String[][] programs = new String[][]{
+        {CHASE, CHASE, "two chasers"},
+        {CHASE, BARRELS, "chaser against barrels"},
+        {BARRELS, BARRELS, "both after barrels"},
+    };
+}
@@ -0,0 +1,53 @@
+/**
+ * Opcodes for the kinds of node in a program, as reported by the Parser to
+ * an AstBuilder and as stored in a FlatProgram.
+ * The ProgramCache writes these numbers to disk, so bump
+ * ProgramCache.VERSION if they change.
+ */
+final class Op {
+
+    private Op() {}
+
+    static final int
+        PROG = 0, BLOCK = 1, LOOP = 2, IF = 3, ELIF = 4, WHILE = 5,
+        // actions
+        MOVE = 6, TURNL = 7, TURNR = 8, TAKEFUEL = 9, WAIT = 10,
+        TURNAROUND = 11, SHIELDON = 12, SHIELDOFF = 13,
+        // integer expressions
+        NUM = 14, FUELLEFT = 15, OPPLR = 16, OPPFB = 17, NUMBARRELS = 18,
+        BARRELLR = 19, BARRELFB = 20, WALLDIST = 21,
+        ADD = 22, SUB = 23, MUL = 24, DIV = 25,
+        // conditions
+        LT = 26, GT = 27, EQ = 28, AND = 29, OR = 30, NOT = 31,
+        // variables: a $name in an expression, and an assignment statement
+        VAR = 32, ASSIGN = 33;
+
+    static final int COUNT = 34;
+
+    private static final String[] NAMES = {
+        "PROG", "BLOCK", "loop", "if", "elif", "while",
+        "move", "turnL", "turnR", "takeFuel", "wait", "turnAround", "shieldOn", "shieldOff",
+        "NUM", "fuelLeft", "oppLR", "oppFB", "numBarrels", "barrelLR", "barrelFB", "wallDist",
+        "add", "sub", "mul", "div",
+        "lt", "gt", "eq", "and", "or", "not",
+        "VAR", "ASSIGN",
+    };
+
+    /** The keyword for an opcode (or its name, for PROG, BLOCK, NUM, VAR and ASSIGN). */
+    static String name(int op) {
+        return NAMES[op];
+    }
+
+    static boolean isAction(int op) {
+        return op >= MOVE && op <= SHIELDOFF;
+    }
+
+    /** Whether an action takes the robot a tick (all but shieldOn and shieldOff). */
+    static boolean takesTick(int op) {
+        return op >= MOVE && op <= TURNAROUND;
+    }
+
+    static boolean isSensor(int op) {
+        return op >= FUELLEFT && op <= WALLDIST;
+    }
+}
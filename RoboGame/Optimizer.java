@@ -0,0 +1,317 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The rewrites done by Parser.optimize(..). An optimizing TreeBuilder
+ * passes each node to fold(..) as it is made, so a node's children have
+ * always been folded before it is:
+ *
+ * - add, sub, mul and div of two numbers become a number (but not a
+ *   division by zero, which must still fail when it runs);
+ * - comparisons of two numbers, and not, and and or with a constant
+ *   operand become a constant condition (a BOOL) or their other operand;
+ * - not(not(c)) becomes c;
+ * - an if or elif whose condition is always false is removed, and one whose
+ *   condition is always true is replaced by its block; a while that never
+ *   runs is removed, and so is the else of an if with elifs (which the
+ *   tree never runs).
+ *
+ * Conditions and expressions have no side effects except failing on a
+ * division by zero, so a subexpression is dropped only where it could not
+ * have failed, or where the original program would not have evaluated it.
+ */
+final class Optimizer {
+
+    private Optimizer() {}
+
+    /**
+     * A statement that has been removed (or replaced by the statements of
+     * one of its blocks). The statement itself is kept in case it is the
+     * only one left in its block, which must not be empty.
+     */
+    record Pruned(ProgramNode node, List<ProgramNode> replacement) {}
+
+    /** Returns the node, or a simpler one that does the same, or a Pruned. */
+    static Object fold(Object node) {
+        if (node instanceof Parser.ADD) {
+            Parser.ADD n = (Parser.ADD) node;
+            if (n.node1 instanceof Parser.NUM && n.node2 instanceof Parser.NUM) { return num(value(n.node1) + value(n.node2)); }
+        } else if (node instanceof Parser.SUB) {
+            Parser.SUB n = (Parser.SUB) node;
+            if (n.node1 instanceof Parser.NUM && n.node2 instanceof Parser.NUM) { return num(value(n.node1) - value(n.node2)); }
+        } else if (node instanceof Parser.MUL) {
+            Parser.MUL n = (Parser.MUL) node;
+            if (n.node1 instanceof Parser.NUM && n.node2 instanceof Parser.NUM) { return num(value(n.node1) * value(n.node2)); }
+        } else if (node instanceof Parser.DIV) {
+            Parser.DIV n = (Parser.DIV) node;
+            if (n.node1 instanceof Parser.NUM && n.node2 instanceof Parser.NUM && value(n.node2) != 0) {
+                return num(value(n.node1) / value(n.node2));
+            }
+        } else if (node instanceof Parser.LTNum) {
+            Parser.LTNum n = (Parser.LTNum) node;
+            if (n.node instanceof Parser.NUM) { return Parser.BOOL.of(value(n.node) < n.num); }
+        } else if (node instanceof Parser.GTNum) {
+            Parser.GTNum n = (Parser.GTNum) node;
+            if (n.node instanceof Parser.NUM) { return Parser.BOOL.of(value(n.node) > n.num); }
+        } else if (node instanceof Parser.EQNum) {
+            Parser.EQNum n = (Parser.EQNum) node;
+            if (n.node instanceof Parser.NUM) { return Parser.BOOL.of(value(n.node) == n.num); }
+        } else if (node instanceof Parser.NOT) {
+            ConditionNode c = ((Parser.NOT) node).node;
+            if (c instanceof Parser.BOOL) { return Parser.BOOL.of(!((Parser.BOOL) c).value); }
+            if (c instanceof Parser.NOT) { return ((Parser.NOT) c).node; }
+        } else if (node instanceof Parser.AND) {
+            Parser.AND n = (Parser.AND) node;
+            return andOr(n, n.node1, n.node2, false);
+        } else if (node instanceof Parser.OR) {
+            Parser.OR n = (Parser.OR) node;
+            return andOr(n, n.node1, n.node2, true);
+        } else if (node instanceof Parser.IF) {
+            return foldIf((Parser.IF) node);
+        } else if (node instanceof Parser.WHILE) {
+            Parser.WHILE n = (Parser.WHILE) node;
+            if (n.Condition == Parser.BOOL.FALSE) { return new Pruned(n, List.of()); }
+        }
+        return node;
+    }
+
+    /**
+     * and (or is false) or or (or is true): a constant first operand
+     * decides it or leaves the second; a constant second operand leaves
+     * the first, or decides it if the first can't fail.
+     */
+    private static ConditionNode andOr(ConditionNode node, ConditionNode a, ConditionNode b, boolean or) {
+        Parser.BOOL decided = Parser.BOOL.of(or);    // the value that settles it
+        if (a instanceof Parser.BOOL) { return (a == decided) ? decided : b; }
+        if (b instanceof Parser.BOOL) {
+            if (b != decided) { return a; }
+            if (!mayFail(a)) { return decided; }
+        }
+        return node;
+    }
+
+    private static Object foldIf(Parser.IF n) {
+        if (n.Condition == Parser.BOOL.TRUE) { return new Pruned(n, n.If.blocks); }
+        if (n.Condition == Parser.BOOL.FALSE) {
+            if (n.ELSEIF.isEmpty()) { return new Pruned(n, (n.Else != null) ? n.Else.blocks : List.of()); }
+            // each elif whose condition holds runs, in order: the same as an if for each
+            List<ProgramNode> replacement = new ArrayList<>();
+            for (Parser.ELSEIF elif : n.ELSEIF) {
+                if (elif.Condition == Parser.BOOL.TRUE) { replacement.addAll(elif.If.blocks); }
+                else if (elif.Condition != Parser.BOOL.FALSE) {
+                    replacement.add(new Parser.IF(elif.Condition, elif.If, List.of(), null));
+                }
+            }
+            return new Pruned(n, replacement);
+        }
+        if (n.ELSEIF.isEmpty()) { return n; }
+        List<Parser.ELSEIF> elifs = new ArrayList<>(n.ELSEIF.size());
+        for (Parser.ELSEIF elif : n.ELSEIF) {
+            if (elif.Condition != Parser.BOOL.FALSE) { elifs.add(elif); }
+        }
+        if (elifs.size() == n.ELSEIF.size() && n.Else == null) { return n; }
+        // the else is never run when there are elifs, so it goes too
+        return new Parser.IF(n.Condition, n.If, elifs, null);
+    }
+
+    /**
+     * fold(..), then for adaptive(..): an and or or whose operands can't
+     * fail becomes an ADAPTIVE.
+     */
+    static Object adapt(Object node) {
+        Object folded = fold(node);
+        if (folded instanceof Parser.AND || folded instanceof Parser.OR) {
+            boolean or = folded instanceof Parser.OR;
+            ConditionNode a = or ? ((Parser.OR) folded).node1 : ((Parser.AND) folded).node1;
+            ConditionNode b = or ? ((Parser.OR) folded).node2 : ((Parser.AND) folded).node2;
+            if (!mayFail(a) && !mayFail(b)) { return new Parser.ADAPTIVE(or, a, b, size(a), size(b)); }
+        }
+        return folded;
+    }
+
+    private static Parser.NUM num(int value) {
+        return new Parser.NUM(value);
+    }
+
+    private static int value(IntNode node) {
+        return ((Parser.NUM) node).num;
+    }
+
+    //----------------------------------------------------------------
+
+    /**
+     * Finds the while loops in an optimized program whose body can never
+     * do an action that takes a tick: every such action in it (if any) is
+     * in a branch that is never taken, and it assigns no variable that the
+     * loop's condition reads. Such a loop spins without ever waiting for
+     * the world, until the robot's loop budget (see Robot.countIteration())
+     * stops it.
+     */
+    static List<Parser.WHILE> idleLoops(ProgramNode prog) {
+        List<Parser.WHILE> idle = new ArrayList<>();
+        // works out canAct and assigns for each statement after its
+        // children, in the order they appear, so an inner loop is listed
+        // before its outer one
+        Map<Object, Boolean> canAct = new IdentityHashMap<>();
+        Map<Object, BitSet> assigns = new IdentityHashMap<>();    // the variables it may set
+        ArrayDeque<Object> work = new ArrayDeque<>();
+        work.push(prog);
+        while (!work.isEmpty()) {
+            Object node = work.peek();
+            List<Object> children = statementsIn(node);
+            boolean ready = true;
+            for (int i = children.size() - 1; i >= 0; i--) {
+                if (!canAct.containsKey(children.get(i))) {
+                    work.push(children.get(i));
+                    ready = false;
+                }
+            }
+            if (!ready) { continue; }
+            work.pop();
+            boolean acts = isAction(node);
+            BitSet assigned = new BitSet();
+            if (node instanceof Parser.ASSGN) { assigned.set(((Parser.ASSGN) node).var.slot); }
+            for (Object child : reachable(node)) {
+                acts |= canAct.get(child);
+                assigned.or(assigns.get(child));
+            }
+            canAct.put(node, acts);
+            assigns.put(node, assigned);
+            if (node instanceof Parser.WHILE) {
+                Parser.WHILE loop = (Parser.WHILE) node;
+                if (!canAct.get(loop.While) && !assigns.get(loop.While).intersects(variablesIn(loop.Condition))) {
+                    idle.add(loop);
+                }
+            }
+        }
+        return idle;
+    }
+
+    /** The blocks and statements directly inside a statement. */
+    private static List<Object> statementsIn(Object node) {
+        List<Object> children = new ArrayList<>();
+        if (node instanceof Parser.PROG) { children.addAll(((Parser.PROG) node).statements); }
+        else if (node instanceof Parser.BLOCK) { children.addAll(((Parser.BLOCK) node).blocks); }
+        else if (node instanceof Parser.LOOP) { children.add(((Parser.LOOP) node).node); }
+        else if (node instanceof Parser.WHILE) { children.add(((Parser.WHILE) node).While); }
+        else if (node instanceof Parser.ELSEIF) { children.add(((Parser.ELSEIF) node).If); }
+        else if (node instanceof Parser.IF) {
+            Parser.IF n = (Parser.IF) node;
+            children.add(n.If);
+            children.addAll(n.ELSEIF);
+            if (n.Else != null) { children.add(n.Else); }
+        }
+        return children;
+    }
+
+    /** The blocks and statements directly inside a statement that can be run. */
+    private static List<Object> reachable(Object node) {
+        if (node instanceof Parser.WHILE) {
+            Parser.WHILE n = (Parser.WHILE) node;
+            return (n.Condition != Parser.BOOL.FALSE) ? List.of(n.While) : List.of();
+        }
+        if (node instanceof Parser.ELSEIF) {
+            Parser.ELSEIF n = (Parser.ELSEIF) node;
+            return (n.Condition != Parser.BOOL.FALSE) ? List.of(n.If) : List.of();
+        }
+        if (node instanceof Parser.IF) {
+            Parser.IF n = (Parser.IF) node;
+            List<Object> children = new ArrayList<>();
+            if (n.Condition != Parser.BOOL.FALSE) { children.add(n.If); }
+            children.addAll(n.ELSEIF);
+            // the else only runs when there are no elifs
+            if (n.Else != null && n.ELSEIF.isEmpty() && n.Condition != Parser.BOOL.TRUE) { children.add(n.Else); }
+            return children;
+        }
+        return statementsIn(node);
+    }
+
+    /**
+     * Whether a statement is itself an action, in the sense the loop budget
+     * uses (see Robot.countIteration()): one that takes a tick. shieldOn and
+     * shieldOff don't, and nor does an assignment, though an assignment may
+     * still end a loop whose condition reads what it sets.
+     */
+    private static boolean isAction(Object node) {
+        return !(node instanceof Parser.ASSGN || node instanceof Parser.PROG || node instanceof Parser.BLOCK
+                 || node instanceof Parser.LOOP || node instanceof Parser.WHILE
+                 || node instanceof Parser.IF || node instanceof Parser.ELSEIF
+                 || node instanceof Parser.shieldOnNode || node instanceof Parser.shieldOffNode);
+    }
+
+    /** The slots of the variables a condition reads. */
+    private static BitSet variablesIn(ConditionNode node) {
+        BitSet slots = new BitSet();
+        Parser.emit(node, new AstBuilder() {
+            public void open(int op) {}
+            public void literal(int value) {}
+            public void variable(int slot, String name) { slots.set(slot); }
+            public void close() {}
+        });
+        return slots;
+    }
+
+    /** The number of nodes in a condition. */
+    private static int size(ConditionNode node) {
+        int[] count = new int[1];
+        Parser.emit(node, new AstBuilder() {
+            public void open(int op) { count[0]++; }
+            public void literal(int value) { count[0]++; }
+            public void variable(int slot, String name) { count[0]++; }
+            public void close() {}
+        });
+        return count[0];
+    }
+
+    /** Whether evaluating a (folded) condition could divide by zero. */
+    private static boolean mayFail(ConditionNode node) {
+        DivisionFinder finder = new DivisionFinder();
+        Parser.emit(node, finder);
+        return finder.found;
+    }
+
+    /** Looks for a div whose divisor isn't a number other than zero. */
+    private static final class DivisionFinder implements AstBuilder {
+        private int[] ops = new int[16], counts = new int[16];
+        private boolean[] safe = new boolean[16];
+        private int depth;
+        boolean found;
+
+        public void open(int op) {
+            child();
+            if (depth == ops.length) {
+                ops = Arrays.copyOf(ops, depth * 2);
+                counts = Arrays.copyOf(counts, depth * 2);
+                safe = Arrays.copyOf(safe, depth * 2);
+            }
+            ops[depth] = op;
+            counts[depth] = 0;
+            safe[depth] = false;
+            depth++;
+        }
+
+        public void literal(int value) {
+            if (child() && value != 0) { safe[depth - 1] = true; }
+        }
+
+        public void variable(int slot, String name) {
+            child();
+        }
+
+        public void close() {
+            depth--;
+            if (ops[depth] == Op.DIV && !safe[depth]) { found = true; }
+        }
+
+        /** Counts a child of the open node, returning whether it is a divisor. */
+        private boolean child() {
+            if (depth == 0) { return false; }
+            return counts[depth - 1]++ == 1 && ops[depth - 1] == Op.DIV;
+        }
+    }
+}
@@ -1,6 +1,10 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.regex.*;
-import java.io.PrintStream;
+import java.util.function.UnaryOperator;
 
 /**
  * See assignment handout for the grammar.
@@ -8,33 +12,26 @@ import java.io.PrintStream;
  * There are several methods provided for you:
  * - several utility methods to help with the parsing
  * See also the TestParser class for testing your code.
+ *
+ * The parser reads its tokens from a Lexer, so none of the grammar rules
+ * compile or run a regex. The grammar rules report the program's structure
+ * to an AstBuilder: a TreeBuilder makes the usual tree of nodes, a
+ * FlatProgram.Builder makes the compact int array form, and validate(..)
+ * just checks the syntax.
+ *
+ * A Parser keeps no state between calls (each parse has its own Lexer and
+ * builder), so one Parser can be used by any number of threads at once.
+ * The trees it returns are immutable and can be shared the same way: parse
+ * a program once and let every robot that runs it execute the same tree.
  */
 public class Parser {
 
-    // Useful Patterns
-
-    static final Pattern NUMPAT = Pattern.compile("-?[1-9][0-9]*|0");
-    static final Pattern OPENPAREN = Pattern.compile("\\(");
-    static final Pattern CLOSEPAREN = Pattern.compile("\\)");
-    static final Pattern OPENBRACE = Pattern.compile("\\{");
-    static final Pattern CLOSEBRACE = Pattern.compile("\\}");
-
-    static final Pattern ACT = Pattern.compile("move|turnL|turnR|takeFuel|wait|turnAround|shieldOn|shieldOff");
-    static final Pattern SENS = Pattern.compile("fuelLeft|oppLR|oppFB|numBarrels|barrelLR|barrelFB|wallDist");
-    static final Pattern RELOP = Pattern.compile("lt|gt|eq");
-    static final Pattern OP = Pattern.compile("add|sub|mul|div");
-    static final Pattern SEMICOL = Pattern.compile(";");
-    static final Pattern LOOP = Pattern.compile("loop");
-    static final Pattern IF = Pattern.compile("if");
-    static final Pattern WHILE = Pattern.compile("while");
-    static final Pattern MOVE = Pattern.compile("move");
-    static final Pattern TURNL = Pattern.compile("turnL");
-    static final Pattern TURNR = Pattern.compile("turnR");
-    static final Pattern TAKEFUEL = Pattern.compile("takeFuel");
-    static final Pattern WAIT = Pattern.compile("wait");
-    static final Pattern TURNAROUND = Pattern.compile("turnAround");
-    static final Pattern SHIELDON = Pattern.compile("shieldOn");
-    static final Pattern SHIELDOFF = Pattern.compile("shieldOff");
+    // Useful groups of tokens
+
+    static final EnumSet<Token> ACT = EnumSet.range(Token.MOVE, Token.SHIELDOFF);
+    static final EnumSet<Token> SENS = EnumSet.range(Token.FUELLEFT, Token.WALLDIST);
+    static final EnumSet<Token> RELOP = EnumSet.range(Token.LT, Token.EQ);
+    static final EnumSet<Token> OP = EnumSet.range(Token.ADD, Token.DIV);
 
     //----------------------------------------------------------------
 
@@ -44,191 +41,880 @@ public class Parser {
      * Returns the parse tree.
      */
     ProgramNode parse(Scanner s) {
-        // Set the delimiter for the scanner.
-        s.useDelimiter("\\s+|(?=[{}(),;])|(?<=[{}(),;])");
-        // THE PARSER GOES HERE
-        // Call the parseProg method for the first grammar rule (PROG) and return the node
-        return new PROG().parse(s);
+        StringBuilder text = new StringBuilder();
+        while (s.hasNextLine()) {
+            text.append(s.nextLine()).append('\n');
+        }
+        return parse(text);
+    }
+
+    /**
+     * Parses the text of a program and returns the parse tree.
+     */
+    ProgramNode parse(CharSequence text) {
+        return parse(new Lexer(text));
+    }
+
+    /**
+     * Parses a program file. The file is read as ASCII bytes through a
+     * FileLexer, so even very large generated programs are lexed without
+     * being copied into memory first.
+     */
+    ProgramNode parse(Path path) throws IOException {
+        TreeBuilder tree = new TreeBuilder();
+        parse(path, tree);
+        return tree.result();
+    }
+
+    ProgramNode parse(Lexer s) {
+        TreeBuilder tree = new TreeBuilder();
+        parseProg(s, tree);
+        return tree.result();
+    }
+
+    /**
+     * Parses a program into the compact FlatProgram form, without building
+     * the tree of nodes.
+     */
+    FlatProgram parseFlat(CharSequence text) {
+        return parseFlat(new Lexer(text));
+    }
+
+    FlatProgram parseFlat(Path path) throws IOException {
+        FlatProgram.Builder flat = new FlatProgram.Builder();
+        parse(path, flat);
+        return flat.build();
+    }
+
+    FlatProgram parseFlat(Lexer s) {
+        FlatProgram.Builder flat = new FlatProgram.Builder();
+        parseProg(s, flat);
+        return flat.build();
+    }
+
+    /**
+     * Checks the syntax of a program without building anything: the grammar
+     * rules run with a builder that ignores every node, so nothing is
+     * allocated per node. Returns where the first error is, if there is one.
+     */
+    Validation validate(CharSequence text) {
+        return validate(new Lexer(text));
+    }
+
+    Validation validate(Path path) throws IOException {
+        try {
+            parse(path, RECOGNIZER);
+            return Validation.VALID;
+        } catch (ParserFailureException e) {
+            return Validation.of(e);
+        }
+    }
+
+    Validation validate(Lexer s) {
+        try {
+            parseProg(s, RECOGNIZER);
+            return Validation.VALID;
+        } catch (ParserFailureException e) {
+            return Validation.of(e);
+        }
+    }
+
+    /**
+     * Checks the syntax of a whole program and reports every error, not just
+     * the first: after an error the parser skips to the end of the statement
+     * (the next ";" or the "}" of the block it was in) and carries on.
+     * Returns an empty list if the program is valid.
+     */
+    List<Validation> validateAll(CharSequence text) {
+        List<ParserFailureException> errors = new ArrayList<>();
+        Lexer s = new Lexer(text);
+        try {
+            RECOGNIZER.open(Op.PROG);
+            run(s, RECOGNIZER, DO_PROG, errors);
+        } catch (ParserFailureException e) {
+            errors.add(e);
+        }
+        List<Validation> result = new ArrayList<>(errors.size());
+        for (ParserFailureException e : errors) { result.add(Validation.of(e)); }
+        return result;
+    }
+
+    /** The builder used by validate(..), which builds nothing. */
+    private static final AstBuilder RECOGNIZER = new AstBuilder() {
+        public void open(int op) {}
+        public void literal(int value) {}
+        public void variable(int slot, String name) {}
+        public void close() {}
+    };
+
+    /**
+     * Parses a program file, reporting its structure to the given builder.
+     */
+    static void parse(Path path, AstBuilder b) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            parse(new FileLexer(channel), b);
+        }
+    }
+
+    /**
+     * Parses a program from a FileLexer, reporting its structure to the
+     * given builder. An error reading the file is thrown as an IOException.
+     */
+    static void parse(FileLexer s, AstBuilder b) throws IOException {
+        try {
+            parseProg(s, b);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
     }
 
     //----------------------------------------------------------------
     // utility methods for the parser
     // - fail(..) reports a failure and throws exception
-    // - require(..) consumes and returns the next token as long as it matches the pattern
-    // - requireInt(..) consumes and returns the next token as an int as long as it matches the pattern
-    // - checkFor(..) peeks at the next token and only consumes it if it matches the pattern
+    // - require(..) consumes and returns the next token as long as it is of the right kind
+    // - requireInt(..) consumes the next token and returns its value as long as it is a number
+    // - checkFor(..) peeks at the next token and only consumes it if it is of the right kind
 
     /**
      * Report a failure in the parser.
      */
-    static void fail(String message, Scanner s) {
-        String msg = message + "\n   @ ...";
-        for (int i = 0; i < 5 && s.hasNext(); i++) {
-            msg += " " + s.next();
+    static void fail(String message, Lexer s) {
+        int line = s.line(), column = s.column();
+        long offset = s.offset();
+        StringBuilder msg = new StringBuilder(message).append("\n   @ ...");
+        String ahead = s.upcoming(5);    // leaves the lexer where it failed, for validateAll(..)
+        if (ahead != null) {
+            msg.append(ahead);
+        } else {
+            for (int i = 0; i < 5 && s.hasNext(); i++) {
+                msg.append(' ').append(s.text());
+                s.next();
+            }
         }
-        throw new ParserFailureException(msg + "...");
+        throw new ParserFailureException(msg.append("...").toString(), line, column, offset);
     }
 
     /**
-     * Requires that the next token matches a pattern if it matches, it consumes
+     * Requires that the next token is of the given kind. If it is, it consumes
      * and returns the token, if not, it throws an exception with an error
      * message
      */
-    static String require(String p, String message, Scanner s) {
-        if (s.hasNext(p)) {
-            return s.next();
+    static Token require(Token t, String message, Lexer s) {
+        if (s.peek() == t) {
+            s.next();
+            return t;
         }
         fail(message, s);
         return null;
     }
 
-    static String require(Pattern p, String message, Scanner s) {
-        if (s.hasNext(p)) {
-            return s.next();
+    static Token require(Set<Token> ts, String message, Lexer s) {
+        Token t = s.peek();
+        if (ts.contains(t)) {
+            s.next();
+            return t;
         }
         fail(message, s);
         return null;
     }
 
     /**
-     * Requires that the next token matches a pattern (which should only match a
-     * number) if it matches, it consumes and returns the token as an integer
-     * if not, it throws an exception with an error message
+     * Requires that the next token is a number. If it is, it consumes
+     * and returns the token as an integer, if not, it throws an exception
+     * with an error message
      */
-    static int requireInt(String p, String message, Scanner s) {
-        if (s.hasNext(p) && s.hasNextInt()) {
-            return s.nextInt();
-        }
-        fail(message, s);
-        return -1;
-    }
-
-    static int requireInt(Pattern p, String message, Scanner s) {
-        if (s.hasNext(p) && s.hasNextInt()) {
-            return s.nextInt();
+    static int requireInt(String message, Lexer s) {
+        if (s.peek() == Token.NUM) {
+            int value = s.value();
+            s.next();
+            return value;
         }
         fail(message, s);
         return -1;
     }
 
     /**
-     * Checks whether the next token in the scanner matches the specified
-     * pattern, if so, consumes the token and return true. Otherwise returns
-     * false without consuming anything.
+     * Checks whether the next token is of the given kind, if so, consumes
+     * the token and return true. Otherwise returns false without consuming
+     * anything.
      */
-    static boolean checkFor(String p, Scanner s) {
-        if (s.hasNext(p)) {
+    static boolean checkFor(Token t, Lexer s) {
+        if (s.peek() == t) {
             s.next();
             return true;
         }
         return false;
     }
 
-    static boolean checkFor(Pattern p, Scanner s) {
-        if (s.hasNext(p)) {
+    //----------------------------------------------------------------
+    // The grammar rules.
+    //
+    // The rules are not recursive methods: the parser keeps an explicit work
+    // stack of the steps it still has to do. A step that needs a sub-rule
+    // pushes the steps that come after the sub-rule, then the sub-rule
+    // itself. So programs can be nested as deeply as you like, using stack
+    // memory in proportion to the nesting instead of the Java thread stack.
+    // Tokens are consumed and errors reported in exactly the same order as
+    // the usual recursive descent.
+    //
+    // Each $variable is given its slot here, as it is parsed, so nothing
+    // looks a variable up by name while the program runs.
+
+    // Steps on the work stack
+    private static final int
+        DO_PROG = 0,         // PROG  ::= [ STMT ]*
+        DO_STMT = 1,         // STMT  ::= ACT ";" | ASSGN ";" | LOOP | IF | WHILE
+                             // ASSGN ::= VAR "=" EXPR
+        DO_BLOCK = 2,        // BLOCK ::= "{" STMT+ "}"
+        DO_BLOCK_REST = 3,   //   the remaining statements of a BLOCK
+        DO_IF_REST = 4,      // IF    ::= "if" "(" COND ")" BLOCK [ "elif" "(" COND ")" BLOCK ]* [ "else" BLOCK ]
+        DO_EXPR = 5,         // EXPR  ::= NUM | VAR | SENS | OP "(" EXPR "," EXPR ")"
+                             // SENS  ::= ... | barrelLR [ "(" EXPR ")" ] | barrelFB [ "(" EXPR ")" ]
+        DO_COND = 6,         // COND  ::= RELOP "(" EXPR "," EXPR ")" | and/or "(" COND "," COND ")" | not "(" COND ")"
+        DO_CLOSE = 7,        //   finish the current node
+        DO_COMMA = 8,        //   require "," between two arguments
+        DO_CLOSEPAREN = 9,   //   require ")" (reported as "Expecting ')'")
+        DO_CLOSEPAREN2 = 10, //   require ")" (reported as "Expected ')'")
+        DO_CLOSEPAREN3 = 11, //   require ")" at the end of an OP (reported as "Expecting '('")
+        DO_SEMICOL = 12,     //   require ";" after an action
+        DO_STMT_END = 13;    //   tell the builder a statement is finished
+
+    static void parseProg(Lexer s, AstBuilder b) {
+        b.open(Op.PROG);
+        run(s, b, DO_PROG, null);
+    }
+
+    /**
+     * Carries out the given step, and everything it leads to, until the work
+     * stack is empty.
+     * If errors is not null, each failure (except at the end of the input)
+     * is added to it and the parser recovers and carries on; the builder's
+     * events are then no longer balanced, so this is only for validating.
+     */
+    private static void run(Lexer s, AstBuilder b, int first, List<ParserFailureException> errors) {
+        Map<String, Integer> slots = new HashMap<>();    // the variables so far
+        int[] work = new int[32];
+        int top = 0;
+        work[top++] = first;
+        while (top > 0) {
+            if (work.length - top < 6) { work = Arrays.copyOf(work, work.length * 2); }
+            int step = work[--top];
+            try {
+                switch (step) {
+                case DO_PROG -> {
+                    if (s.hasNext()) {
+                        work[top++] = DO_PROG;
+                        work[top++] = DO_STMT;
+                    } else {
+                        b.close();
+                    }
+                }
+                case DO_STMT -> {
+                    if (b.reuseStatement(s)) { break; }
+                    work[top++] = DO_STMT_END;
+                    Token t = s.peek();
+                    if (ACT.contains(t)) {
+                        s.next();
+                        b.open(t.op);
+                        if ((t == Token.MOVE || t == Token.WAIT) && checkFor(Token.OPENPAREN, s)) {
+                            work[top++] = DO_SEMICOL;
+                            work[top++] = DO_CLOSE;
+                            work[top++] = DO_CLOSEPAREN;
+                            work[top++] = DO_EXPR;
+                        } else {
+                            b.close();
+                            require(Token.SEMICOL, "Expecting ';'", s);
+                        }
+                    } else if (t == Token.VAR) {
+                        b.open(Op.ASSIGN);
+                        variable(s, b, slots);
+                        require(Token.ASSIGN, "Expecting '='", s);
+                        work[top++] = DO_SEMICOL;
+                        work[top++] = DO_CLOSE;
+                        work[top++] = DO_EXPR;
+                    } else if (t == Token.LOOP) {
+                        s.next();
+                        b.open(Op.LOOP);
+                        work[top++] = DO_CLOSE;
+                        work[top++] = DO_BLOCK;
+                    } else if (t == Token.IF) {
+                        s.next();
+                        b.open(Op.IF);
+                        require(Token.OPENPAREN, "Expected '('", s);
+                        work[top++] = DO_IF_REST;
+                        work[top++] = DO_BLOCK;
+                        work[top++] = DO_CLOSEPAREN2;
+                        work[top++] = DO_COND;
+                    } else if (t == Token.WHILE) {
+                        s.next();
+                        b.open(Op.WHILE);
+                        require(Token.OPENPAREN, "Expected '('", s);
+                        work[top++] = DO_CLOSE;
+                        work[top++] = DO_BLOCK;
+                        work[top++] = DO_CLOSEPAREN2;
+                        work[top++] = DO_COND;
+                    } else {
+                        fail("Expecting statement", s);
+                    }
+                }
+                case DO_BLOCK -> {
+                    require(Token.OPENBRACE, "Expecting '\\{'", s);
+                    b.open(Op.BLOCK);
+                    work[top++] = DO_BLOCK_REST;
+                    if (!s.hasNext() || s.peek() == Token.CLOSEBRACE) {
+                        fail("Expecting at least one or more statements inside loop", s);
+                    }
+                    work[top++] = DO_STMT;
+                }
+                case DO_BLOCK_REST -> {
+                    if (s.hasNext() && s.peek() != Token.CLOSEBRACE) {
+                        work[top++] = DO_BLOCK_REST;
+                        work[top++] = DO_STMT;
+                    } else {
+                        require(Token.CLOSEBRACE, "Expecting '\\}'", s);
+                        b.close();
+                    }
+                }
+                case DO_IF_REST -> {
+                    if (checkFor(Token.ELIF, s)) {
+                        b.open(Op.ELIF);
+                        require(Token.OPENPAREN, "Expecting '('", s);
+                        work[top++] = DO_IF_REST;
+                        work[top++] = DO_CLOSE;
+                        work[top++] = DO_BLOCK;
+                        work[top++] = DO_CLOSEPAREN;
+                        work[top++] = DO_COND;
+                    } else if (checkFor(Token.ELSE, s)) {
+                        work[top++] = DO_CLOSE;
+                        work[top++] = DO_BLOCK;
+                    } else {
+                        b.close();
+                    }
+                }
+                case DO_EXPR -> {
+                    Token t = s.peek();
+                    if (t == Token.NUM) {
+                        b.literal(requireInt("Expecting number", s));
+                    } else if (t == Token.VAR) {
+                        variable(s, b, slots);
+                    } else if (SENS.contains(t)) {
+                        s.next();
+                        b.open(t.op);
+                        if ((t == Token.BARRELLR || t == Token.BARRELFB) && checkFor(Token.OPENPAREN, s)) {
+                            work[top++] = DO_CLOSE;
+                            work[top++] = DO_CLOSEPAREN;
+                            work[top++] = DO_EXPR;
+                        } else {
+                            b.close();
+                        }
+                    } else if (OP.contains(t)) {
+                        s.next();
+                        b.open(t.op);
+                        require(Token.OPENPAREN, "Expecting '('", s);
+                        work[top++] = DO_CLOSE;
+                        work[top++] = DO_CLOSEPAREN3;
+                        work[top++] = DO_EXPR;
+                        work[top++] = DO_COMMA;
+                        work[top++] = DO_EXPR;
+                    } else {
+                        fail("expecting expression", s);
+                    }
+                }
+                case DO_COND -> {
+                    Token t = s.peek();
+                    int arg;
+                    if (RELOP.contains(t)) {
+                        arg = DO_EXPR;
+                    } else if (t == Token.AND || t == Token.OR || t == Token.NOT) {
+                        arg = DO_COND;
+                    } else {
+                        fail("Expecting lt|gt|eq", s);
+                        return;
+                    }
+                    s.next();
+                    b.open(t.op);
+                    require(Token.OPENPAREN, "Expecting '('", s);
+                    work[top++] = DO_CLOSE;
+                    work[top++] = DO_CLOSEPAREN;
+                    work[top++] = arg;
+                    if (t != Token.NOT) {
+                        work[top++] = DO_COMMA;
+                        work[top++] = arg;
+                    }
+                }
+                case DO_CLOSE -> b.close();
+                case DO_COMMA -> require(Token.COMMA, "Expecting ','", s);
+                case DO_CLOSEPAREN -> require(Token.CLOSEPAREN, "Expecting ')'", s);
+                case DO_CLOSEPAREN2 -> require(Token.CLOSEPAREN, "Expected ')'", s);
+                case DO_CLOSEPAREN3 -> require(Token.CLOSEPAREN, "Expecting '('", s);
+                case DO_SEMICOL -> require(Token.SEMICOL, "Expecting ';'", s);
+                case DO_STMT_END -> b.endStatement(s);
+                default -> throw new IllegalStateException("unknown parser step " + step);
+                }
+            } catch (ParserFailureException e) {
+                if (errors == null) { throw e; }
+                errors.add(e);
+                if (!s.hasNext()) { return; }
+                top = recover(s, work, top);
+            }
+        }
+    }
+
+    /**
+     * Reports the variable that is the next token, giving its name the next
+     * free slot if it is new, and consumes it.
+     */
+    private static void variable(Lexer s, AstBuilder b, Map<String, Integer> slots) {
+        String name = s.text().substring(1);
+        Integer slot = slots.get(name);
+        if (slot == null) {
+            slot = slots.size();
+            slots.put(name, slot);
+        }
+        s.next();
+        b.variable(slot, name);
+    }
+
+    /**
+     * Gets the parser going again after an error in a statement: drops the
+     * rest of that statement's steps, back to the list of statements it is
+     * in, and skips its remaining tokens. A statement ends at a ";" outside
+     * braces, or at the "}" that closes braces it opened (unless an elif or
+     * else follows); a "}" that closes
+     * the enclosing block is left for the block (or, at the top level, where
+     * there is no block, skipped). Returns the new top of the work stack.
+     */
+    private static int recover(Lexer s, int[] work, int top) {
+        while (work[top - 1] != DO_BLOCK_REST && work[top - 1] != DO_PROG) { top--; }
+        int depth = 0;
+        while (s.hasNext()) {
+            Token t = s.peek();
+            if (t == Token.OPENBRACE) {
+                depth++;
+            } else if (t == Token.CLOSEBRACE) {
+                if (depth == 0) {
+                    if (work[top - 1] == DO_PROG) { s.next(); }
+                    break;
+                }
+                if (--depth == 0) {
+                    s.next();
+                    if (s.peek() != Token.ELIF && s.peek() != Token.ELSE) { break; }
+                    continue;
+                }
+            } else if (t == Token.SEMICOL && depth == 0) {
+                s.next();
+                break;
+            }
             s.next();
-            return true;
         }
-        return false;
+        return top;
     }
 
-    class PROG implements ProgramNode {
-        List<ProgramNode> statements = new ArrayList<>();
-        public void execute(Robot robot) {
-            for (ProgramNode r : statements) {
-                r.execute(robot);
+    //----------------------------------------------------------------
+
+    /**
+     * Rewrites a parsed program (a tree or a FlatProgram) into a tree for
+     * executing: the wrapper nodes (STMT, ACT, EXPR, SENS, OP, COND and
+     * RELOP), which only pass each call on to their child, are left out,
+     * and common shapes get nodes of their own (see TreeBuilder). The tree
+     * behaves, and prints, exactly like the original.
+     */
+    static ProgramNode specialize(ProgramNode prog) {
+        return rebuild(prog, null);
+    }
+
+    /**
+     * Rewrites a parsed program like specialize(..), and also optimizes it
+     * (see Optimizer): constant arithmetic and conditions are worked out,
+     * and statements that can never run are removed. The program behaves
+     * exactly as before, and the result can be printed and parsed again.
+     */
+    static ProgramNode optimize(ProgramNode prog) {
+        return rebuild(prog, Optimizer::fold);
+    }
+
+    /**
+     * Rewrites a parsed program like optimize(..), but with each and and or
+     * whose operands can't fail made an ADAPTIVE node, which learns which
+     * operand is better tested first. The tree's conditions then keep
+     * counts as they run, so they are no longer immutable (see ADAPTIVE):
+     * this is always the last step before a program runs (see
+     * Engine.prepare(..)), its result is run by one robot only, and it is
+     * never cached.
+     */
+    static ProgramNode adaptive(ProgramNode prog) {
+        return rebuild(prog, Optimizer::adapt);
+    }
+
+    /** Rebuilds a program with a specializing TreeBuilder. */
+    private static ProgramNode rebuild(ProgramNode prog, UnaryOperator<Object> rewrite) {
+        TreeBuilder tree = new TreeBuilder(true, rewrite);
+        if (prog instanceof FlatProgram) { ((FlatProgram) prog).emit(tree); }
+        else { emit(prog, tree); }
+        return tree.result();
+    }
+
+    /**
+     * Builds the tree of nodes below from the grammar rules' events.
+     * Finished nodes wait on a stack until their parent is closed.
+     * A TreeBuilder is used for a single parse, by a single thread.
+     *
+     * A specializing TreeBuilder builds the tree for specialize(..): no
+     * wrapper nodes, move and wait with no argument as moveOnceNode and
+     * waitOnceNode, and comparisons with a number on the right as
+     * LTNum, GTNum and EQNum. It can also be given a rewrite (such as
+     * Optimizer.fold(..)) to pass each node through as it is made.
+     */
+    static final class TreeBuilder implements AstBuilder {
+        private final boolean specialize;
+        private final UnaryOperator<Object> rewrite;
+        private Object[] nodes = new Object[64];
+        private int top;
+        private int[] ops = new int[16], starts = new int[16];
+        private int depth;
+        private int slots;    // one more than the highest variable slot seen
+
+        TreeBuilder() {
+            this(false, null);
+        }
+
+        /** rewrite may be null; if not, the builder must be specializing. */
+        TreeBuilder(boolean specialize, UnaryOperator<Object> rewrite) {
+            this.specialize = specialize;
+            this.rewrite = rewrite;
+        }
+
+        public void open(int op) {
+            if (depth == ops.length) {
+                ops = Arrays.copyOf(ops, depth * 2);
+                starts = Arrays.copyOf(starts, depth * 2);
             }
+            ops[depth] = op;
+            starts[depth] = top;
+            depth++;
         }
-        public ProgramNode parse(Scanner s) {
-            STMT stmt;
-            while (s.hasNext()) {
-                stmt = new STMT();
-                statements.add(stmt.parse(s));
+
+        public void literal(int value) {
+            push(new NUM(value));
+        }
+
+        public void variable(int slot, String name) {
+            slots = Math.max(slots, slot + 1);
+            push(new VAR(slot, name));
+        }
+
+        public void close() {
+            depth--;
+            int from = starts[depth];
+            Object node = build(ops[depth], from, top - from);
+            if (rewrite != null) { node = rewrite.apply(node); }
+            Arrays.fill(nodes, from, top, null);
+            top = from;
+            push(node);
+        }
+
+        ProgramNode result() {
+            return (ProgramNode) nodes[0];
+        }
+
+        /** The most recently finished node. */
+        Object last() {
+            return nodes[top - 1];
+        }
+
+        /** Adds a node that was built earlier, as if it had just been closed. */
+        void push(Object node) {
+            if (top == nodes.length) { nodes = Arrays.copyOf(nodes, top * 2); }
+            nodes[top++] = node;
+        }
+
+        /** Makes the node for op from its count children at nodes[from..]. */
+        private Object build(int op, int from, int count) {
+            switch (op) {
+            case Op.PROG -> { return new PROG(statements(from, count, false), slots); }
+            case Op.BLOCK -> { return new BLOCK(statements(from, count, true)); }
+            case Op.LOOP -> { return new LOOP((BLOCK) nodes[from]); }
+            case Op.IF -> {
+                List<ELSEIF> elifs = new ArrayList<>();
+                BLOCK elseBlock = null;
+                for (int i = 2; i < count; i++) {
+                    if (nodes[from + i] instanceof ELSEIF) { elifs.add((ELSEIF) nodes[from + i]); }
+                    else { elseBlock = (BLOCK) nodes[from + i]; }
+                }
+                return new IF(cond(nodes[from]), (BLOCK) nodes[from + 1], elifs, elseBlock);
+            }
+            case Op.ELIF -> { return new ELSEIF(cond(nodes[from]), (BLOCK) nodes[from + 1]); }
+            case Op.WHILE -> { return new WHILE(cond(nodes[from]), (BLOCK) nodes[from + 1]); }
+            case Op.MOVE -> {
+                if (count == 0 && specialize) { return new moveOnceNode(); }
+                return act(new moveNode((count > 0) ? expr(nodes[from]) : null));
+            }
+            case Op.WAIT -> {
+                if (count == 0 && specialize) { return new waitOnceNode(); }
+                return act(new waitNode((count > 0) ? expr(nodes[from]) : null));
+            }
+            case Op.TURNL -> { return act(new turnLNode()); }
+            case Op.TURNR -> { return act(new turnRNode()); }
+            case Op.TAKEFUEL -> { return act(new takeFuelNode()); }
+            case Op.TURNAROUND -> { return act(new turnAroundNode()); }
+            case Op.SHIELDON -> { return act(new shieldOnNode()); }
+            case Op.SHIELDOFF -> { return act(new shieldOffNode()); }
+            case Op.FUELLEFT -> { return sens(new fuelLeft()); }
+            case Op.OPPLR -> { return sens(new oppLR()); }
+            case Op.OPPFB -> { return sens(new oppFB()); }
+            case Op.NUMBARRELS -> { return sens(new numBarrels()); }
+            case Op.BARRELLR -> { return sens((count > 0) ? new barrelLRAt(expr(nodes[from])) : new barrelLR()); }
+            case Op.BARRELFB -> { return sens((count > 0) ? new barrelFBAt(expr(nodes[from])) : new barrelFB()); }
+            case Op.WALLDIST -> { return sens(new wallDist()); }
+            case Op.ADD -> { return op(new ADD(expr(nodes[from]), expr(nodes[from + 1]))); }
+            case Op.SUB -> { return op(new SUB(expr(nodes[from]), expr(nodes[from + 1]))); }
+            case Op.MUL -> { return op(new MUL(expr(nodes[from]), expr(nodes[from + 1]))); }
+            case Op.DIV -> { return op(new DIV(expr(nodes[from]), expr(nodes[from + 1]))); }
+            case Op.LT, Op.GT, Op.EQ -> { return relop(op, nodes[from], nodes[from + 1]); }
+            case Op.AND -> { return new AND(cond(nodes[from]), cond(nodes[from + 1])); }
+            case Op.OR -> { return new OR(cond(nodes[from]), cond(nodes[from + 1])); }
+            case Op.NOT -> { return new NOT(cond(nodes[from])); }
+            case Op.ASSIGN -> { return new ASSGN((VAR) nodes[from], expr(nodes[from + 1])); }
+            default -> throw new IllegalStateException("unknown op " + op);
             }
-            return this;
         }
 
-        public String toString() {
-            String s = "";
-            for (ProgramNode r : statements) {
-                s += r.toString();
+        private Object relop(int op, Object left, Object right) {
+            if (specialize && right instanceof NUM) {
+                IntNode l = (IntNode) left;
+                int n = ((NUM) right).num;
+                switch (op) {
+                case Op.LT -> { return new LTNum(l, n); }
+                case Op.GT -> { return new GTNum(l, n); }
+                default -> { return new EQNum(l, n); }
+                }
             }
-            return s;
-        }
-    }
-    class STMT implements ProgramNode {
-        ProgramNode node = null;
-        public ProgramNode parse(Scanner s) {
-            if (s.hasNext(ACT)) {
-                node = new ACT();
-            } else if (s.hasNext(LOOP)) {
-                node = new LOOP();
-            } else if (s.hasNext(IF)){
-                node = new IF();
-            } else if (s.hasNext(WHILE)){
-                node = new WHILE();
+            switch (op) {
+            case Op.LT -> { return relop(new LT(expr(left), expr(right))); }
+            case Op.GT -> { return relop(new GT(expr(left), expr(right))); }
+            default -> { return relop(new EQ(expr(left), expr(right))); }
             }
-            node.parse(s);
-            return this;
         }
-        public void execute(Robot robot) { node.execute(robot); }
-        public String toString() { return node.toString() + "\n"; }
-    }
-    class ACT implements ProgramNode {
-        ProgramNode node;
-        public ProgramNode parse(Scanner s) {
-             if (Parser.checkFor(MOVE, s)) {
-                node = new moveNode();
-                 node.parse(s);
-            } else if (Parser.checkFor(TURNL, s)) {
-                node = new turnLNode();
-            } else if (Parser.checkFor(TURNR, s)) {
-                node = new turnRNode();
-            } else if (Parser.checkFor(TAKEFUEL, s)) {
-                node = new takeFuelNode();
-            } else if (Parser.checkFor(WAIT, s)) {
-                node = new waitNode();
-                node.parse(s);
-            } else if (Parser.checkFor(TURNAROUND, s)) {
-                 node = new turnAroundNode();
-             } else if (Parser.checkFor(SHIELDON, s)) {
-                 node = new shieldOnNode();
-             } else if (Parser.checkFor(SHIELDOFF, s)) {
-                 node = new shieldOffNode();
-             } else {
-                Parser.fail("Expecting valid action", s);
+
+        // The wrapper nodes that each grammar rule puts around its child,
+        // which a specializing builder leaves out
+
+        private List<ProgramNode> statements(int from, int count, boolean block) {
+            List<ProgramNode> list = new ArrayList<>(count);
+            Optimizer.Pruned pruned = null;
+            for (int i = 0; i < count; i++) {
+                if (nodes[from + i] instanceof Optimizer.Pruned) {
+                    pruned = (Optimizer.Pruned) nodes[from + i];
+                    list.addAll(pruned.replacement());
+                    continue;
+                }
+                ProgramNode node = (ProgramNode) nodes[from + i];
+                list.add(specialize ? node : new STMT(node));
             }
+            // a block must keep a statement, even one that does nothing
+            if (block && list.isEmpty() && pruned != null) { list.add(pruned.node()); }
+            return list;
+        }
 
-            Parser.require(Parser.SEMICOL, "Expecting ';'", s);
+        private ProgramNode act(ProgramNode node) {
+            return specialize ? node : new ACT(node);
+        }
 
-            return node;
+        private IntNode sens(IntNode node) {
+            return specialize ? node : new SENS(node);
         }
 
-        public void execute(Robot robot) { node.execute(robot); }
-        public String toString() { return node.toString() + ";"; }
+        private IntNode op(IntNode node) {
+            return specialize ? node : new OP(node);
+        }
+
+        private ConditionNode relop(ConditionNode node) {
+            return specialize ? node : new RELOP(node);
+        }
+
+        private IntNode expr(Object node) {
+            return specialize ? (IntNode) node : new EXPR((IntNode) node);
+        }
+
+        private ConditionNode cond(Object node) {
+            return specialize ? (ConditionNode) node : new COND((ConditionNode) node);
+        }
     }
-    class LOOP implements ProgramNode {
-        BLOCK node = null;
-        public ProgramNode parse(Scanner s) {
-            Parser.require(Parser.LOOP, "Expecting 'loop'", s);
-            node = new BLOCK();
-            node.parse(s);
-            return node;
+
+    /**
+     * Reports the structure of a tree (or of any node in one) to a builder,
+     * exactly as the Parser did when it built the tree. Works through the
+     * tree with a stack rather than recursion, so any depth of nesting is fine.
+     */
+    static void emit(Object root, AstBuilder b) {
+        ArrayDeque<Object> work = new ArrayDeque<>();
+        work.push(root);
+        while (!work.isEmpty()) {
+            Object node = work.pop();
+            if (node == END) {
+                b.close();
+            } else if (node instanceof NUM) {
+                b.literal(((NUM) node).num);
+            } else if (node instanceof VAR) {
+                b.variable(((VAR) node).slot, ((VAR) node).name);
+            } else if (node instanceof STMT) { work.push(((STMT) node).node); }
+            else if (node instanceof ACT) { work.push(((ACT) node).node); }
+            else if (node instanceof EXPR) { work.push(((EXPR) node).node); }
+            else if (node instanceof SENS) { work.push(((SENS) node).node); }
+            else if (node instanceof OP) { work.push(((OP) node).node); }
+            else if (node instanceof COND) { work.push(((COND) node).node); }
+            else if (node instanceof RELOP) { work.push(((RELOP) node).node); }
+            else {
+                b.open(opOf(node));
+                work.push(END);
+                pushChildren(node, work);
+            }
+        }
+    }
+
+    /** Marks where emit(..) closes a node. */
+    private static final Object END = new Object();
+
+    private static final Map<Class<?>, Integer> LEAF_OPS = Map.ofEntries(
+        Map.entry(turnLNode.class, Op.TURNL), Map.entry(turnRNode.class, Op.TURNR),
+        Map.entry(takeFuelNode.class, Op.TAKEFUEL), Map.entry(turnAroundNode.class, Op.TURNAROUND),
+        Map.entry(shieldOnNode.class, Op.SHIELDON), Map.entry(shieldOffNode.class, Op.SHIELDOFF),
+        Map.entry(fuelLeft.class, Op.FUELLEFT), Map.entry(oppLR.class, Op.OPPLR),
+        Map.entry(oppFB.class, Op.OPPFB), Map.entry(numBarrels.class, Op.NUMBARRELS),
+        Map.entry(barrelLR.class, Op.BARRELLR), Map.entry(barrelFB.class, Op.BARRELFB),
+        Map.entry(wallDist.class, Op.WALLDIST),
+        Map.entry(moveOnceNode.class, Op.MOVE), Map.entry(waitOnceNode.class, Op.WAIT));
+
+    private static int opOf(Object node) {
+        if (node instanceof PROG) { return Op.PROG; }
+        if (node instanceof BLOCK) { return Op.BLOCK; }
+        if (node instanceof LOOP) { return Op.LOOP; }
+        if (node instanceof IF) { return Op.IF; }
+        if (node instanceof ELSEIF) { return Op.ELIF; }
+        if (node instanceof WHILE) { return Op.WHILE; }
+        if (node instanceof moveNode) { return Op.MOVE; }
+        if (node instanceof waitNode) { return Op.WAIT; }
+        if (node instanceof ADD) { return Op.ADD; }
+        if (node instanceof SUB) { return Op.SUB; }
+        if (node instanceof MUL) { return Op.MUL; }
+        if (node instanceof DIV) { return Op.DIV; }
+        if (node instanceof LT || node instanceof LTNum) { return Op.LT; }
+        if (node instanceof GT || node instanceof GTNum) { return Op.GT; }
+        if (node instanceof EQ || node instanceof EQNum || node instanceof BOOL) { return Op.EQ; }
+        if (node instanceof AND) { return Op.AND; }
+        if (node instanceof OR) { return Op.OR; }
+        if (node instanceof ADAPTIVE) { return ((ADAPTIVE) node).or ? Op.OR : Op.AND; }
+        if (node instanceof NOT) { return Op.NOT; }
+        if (node instanceof ASSGN) { return Op.ASSIGN; }
+        if (node instanceof barrelLRAt) { return Op.BARRELLR; }
+        if (node instanceof barrelFBAt) { return Op.BARRELFB; }
+        Integer op = LEAF_OPS.get(node.getClass());
+        if (op == null) { throw new IllegalArgumentException("not a node of a tree: " + node.getClass()); }
+        return op;
+    }
+
+    /** Pushes a node's children so that they come off the stack in order. */
+    private static void pushChildren(Object node, ArrayDeque<Object> work) {
+        if (node instanceof PROG) { pushAll(((PROG) node).statements, work); }
+        else if (node instanceof BLOCK) { pushAll(((BLOCK) node).blocks, work); }
+        else if (node instanceof LOOP) { work.push(((LOOP) node).node); }
+        else if (node instanceof IF) {
+            IF n = (IF) node;
+            if (n.Else != null) { work.push(n.Else); }
+            pushAll(n.ELSEIF, work);
+            work.push(n.If);
+            work.push(n.Condition);
+        }
+        else if (node instanceof ELSEIF) { work.push(((ELSEIF) node).If); work.push(((ELSEIF) node).Condition); }
+        else if (node instanceof WHILE) { work.push(((WHILE) node).While); work.push(((WHILE) node).Condition); }
+        else if (node instanceof moveNode) { if (((moveNode) node).node != null) { work.push(((moveNode) node).node); } }
+        else if (node instanceof waitNode) { if (((waitNode) node).node != null) { work.push(((waitNode) node).node); } }
+        else if (node instanceof ADD) { work.push(((ADD) node).node2); work.push(((ADD) node).node1); }
+        else if (node instanceof SUB) { work.push(((SUB) node).node2); work.push(((SUB) node).node1); }
+        else if (node instanceof MUL) { work.push(((MUL) node).node2); work.push(((MUL) node).node1); }
+        else if (node instanceof DIV) { work.push(((DIV) node).node2); work.push(((DIV) node).node1); }
+        else if (node instanceof LT) { work.push(((LT) node).conditionTwo); work.push(((LT) node).conditionOne); }
+        else if (node instanceof GT) { work.push(((GT) node).conditionTwo); work.push(((GT) node).conditionOne); }
+        else if (node instanceof EQ) { work.push(((EQ) node).conditionTwo); work.push(((EQ) node).conditionOne); }
+        else if (node instanceof LTNum) { work.push(new NUM(((LTNum) node).num)); work.push(((LTNum) node).node); }
+        else if (node instanceof GTNum) { work.push(new NUM(((GTNum) node).num)); work.push(((GTNum) node).node); }
+        else if (node instanceof EQNum) { work.push(new NUM(((EQNum) node).num)); work.push(((EQNum) node).node); }
+        else if (node instanceof BOOL) { work.push(new NUM(((BOOL) node).value ? 0 : 1)); work.push(new NUM(0)); }
+        else if (node instanceof AND) { work.push(((AND) node).node2); work.push(((AND) node).node1); }
+        else if (node instanceof OR) { work.push(((OR) node).node2); work.push(((OR) node).node1); }
+        else if (node instanceof NOT) { work.push(((NOT) node).node); }
+        else if (node instanceof ADAPTIVE) { work.push(((ADAPTIVE) node).operands[1]); work.push(((ADAPTIVE) node).operands[0]); }
+        else if (node instanceof ASSGN) { work.push(((ASSGN) node).node); work.push(((ASSGN) node).var); }
+        else if (node instanceof barrelLRAt) { work.push(((barrelLRAt) node).index); }
+        else if (node instanceof barrelFBAt) { work.push(((barrelFBAt) node).index); }
+    }
+
+    private static void pushAll(List<?> nodes, ArrayDeque<Object> work) {
+        for (int i = nodes.size() - 1; i >= 0; i--) { work.push(nodes.get(i)); }
+    }
+
+    //----------------------------------------------------------------
+    // The nodes of the tree.
+    //
+    // Every node is immutable: its fields are final, set once by the
+    // TreeBuilder, and its lists cannot be changed. Nodes keep no state
+    // while they execute (that all lives in the Robot, including the
+    // values of the program's variables, and on the stack),
+    // so one tree can be executed by any number of robots at once. The one
+    // exception is ADAPTIVE, whose counts only ever change the order it
+    // tests its operands in; adaptive(..) builds a fresh tree for each
+    // robot, and ProgramCache never holds one.
+
+    static final class PROG implements ProgramNode {
+        final List<ProgramNode> statements;
+        final int slots;    // the number of variables
+        PROG(List<ProgramNode> statements, int slots) {
+            this.statements = List.copyOf(statements);
+            this.slots = slots;
         }
         public void execute(Robot robot) {
-            node.execute(robot);
+            robot.newFrame(slots);
+            for (ProgramNode r : statements) {
+                r.execute(robot);
+            }
         }
 
-        public String toString() {
-            String s = node.toString();
-            return String.format("loop %s", s);
+        public String toString() { return ProgramPrinter.toString(this); }
+    }
+    static final class STMT implements ProgramNode {
+        final ProgramNode node;
+        STMT(ProgramNode node) { this.node = node; }
+        public void execute(Robot robot) { node.execute(robot); }
+        public String toString() { return ProgramPrinter.toString(this); }
+    }
+    static final class ACT implements ProgramNode {
+        final ProgramNode node;
+        ACT(ProgramNode node) { this.node = node; }
+
+        public void execute(Robot robot) { node.execute(robot); }
+        public String toString() { return ProgramPrinter.toString(this); }
+    }
+    static final class LOOP implements ProgramNode {
+        final BLOCK node;
+        LOOP(BLOCK node) { this.node = node; }
+        public void execute(Robot robot) {
+            node.execute(robot);
         }
+
+        public String toString() { return ProgramPrinter.toString(this); }
     }
-    class IF implements ProgramNode {
-        private COND Condition = null;
-        private BLOCK If = null;
-        private BLOCK Else = null;
-        private List<ProgramNode> ELSEIF = new ArrayList<>();
+    static final class IF implements ProgramNode {
+        final ConditionNode Condition;
+        final BLOCK If;
+        final BLOCK Else;
+        final List<ELSEIF> ELSEIF;
+
+        IF(ConditionNode condition, BLOCK ifBlock, List<ELSEIF> elifs, BLOCK elseBlock) {
+            Condition = condition;
+            If = ifBlock;
+            ELSEIF = List.copyOf(elifs);
+            Else = elseBlock;
+        }
 
         public void execute(Robot robot) {
             if (Condition != null) {
@@ -245,36 +931,16 @@ public class Parser {
             }
         }
 
-        public ProgramNode parse(Scanner s) {
-            require(Parser.IF, "Expected 'if'", s);
-            require(Parser.OPENPAREN, "Expected '('",s);
-
-            Condition = new COND();
-            Condition.parse(s);
-
-            require(Parser.CLOSEPAREN, "Expected ')'",s);
-
-            If = new BLOCK();
-            If.parse(s);
-
-            while(checkFor("elif", s)){
-                ELSEIF.add(new ELSEIF().parse(s));
-            }
-
-            if(checkFor("else",s)){
-                Else = new BLOCK();
-                Else.parse(s);
-            }
-
-            return this;
-        }
-
-        public String toString() { return "if (" + Condition.toString() + ")" + If.toString(); }
+        public String toString() { return ProgramPrinter.toString(this); }
 
     }
-    class ELSEIF implements ProgramNode{
-        private COND Condition = null;
-        private BLOCK If = null;
+    static final class ELSEIF implements ProgramNode{
+        final ConditionNode Condition;
+        final BLOCK If;
+        ELSEIF(ConditionNode condition, BLOCK ifBlock) {
+            Condition = condition;
+            If = ifBlock;
+        }
         public void execute(Robot robot) {
             if (Condition != null) {
                 if (Condition.evaluate(robot)) {
@@ -283,56 +949,35 @@ public class Parser {
             }
         }
 
-        public ProgramNode parse(Scanner s) {
-            require(OPENPAREN,"Expecting '('", s);
-            Condition = new COND();
-            Condition.parse(s);
-            require(CLOSEPAREN,"Expecting ')'", s);
-            If = new BLOCK();
-            If.parse(s);
-            return this;
-        }
-
-        public String toString() {
-            return "elif (" + Condition.toString() + ")" + If.toString();
-        }
+        public String toString() { return ProgramPrinter.toString(this); }
 
     }
-    class WHILE implements ProgramNode {
-        private COND Condition = null;
-        private BLOCK While = null;
+    static final class WHILE implements ProgramNode {
+        final ConditionNode Condition;
+        final BLOCK While;
+        WHILE(ConditionNode condition, BLOCK whileBlock) {
+            Condition = condition;
+            While = whileBlock;
+        }
 
         public void execute(Robot robot) {
             if (Condition == null) { return; }
                 while(true){
                     if(Condition.evaluate(robot)){
                         While.execute(robot);
+                        robot.countIteration();
                     } else {
                         return;
                     }
                 }
         }
 
-        public ProgramNode parse(Scanner s) {
-            require(WHILE, "Expected 'while'", s);
-            require(OPENPAREN, "Expected '('", s);
-
-            Condition = new COND();
-            Condition.parse(s);
-
-            require(CLOSEPAREN, "Expected ')'",s);
-
-            While = new BLOCK();
-            While.parse(s);
-
-            return this;
-        }
-
-        public String toString() { return "while (" + Condition.toString() + ")" + While.toString(); }
+        public String toString() { return ProgramPrinter.toString(this); }
 
     }
-    class BLOCK implements ProgramNode {
-        List<ProgramNode> blocks = new ArrayList<>();
+    static final class BLOCK implements ProgramNode {
+        final List<ProgramNode> blocks;
+        BLOCK(List<ProgramNode> blocks) { this.blocks = List.copyOf(blocks); }
 
         public void execute(Robot robot) {
             for (ProgramNode r : blocks) {
@@ -340,526 +985,455 @@ public class Parser {
             }
         }
 
-        public ProgramNode parse(Scanner s) {
-            STMT node;
-            Parser.require(Parser.OPENBRACE, "Expecting '" + Parser.OPENBRACE + "'", s);
-            if (s.hasNext() && !s.hasNext(Parser.CLOSEBRACE)) {
-                while (!s.hasNext(Parser.CLOSEBRACE)) {
-                    node = new STMT();
-                    node.parse(s);
-                    blocks.add(node);
-                }
-            } else {
-                fail("Expecting at least one or more statements inside loop",s);
-            }
-
-            Parser.require(Parser.CLOSEBRACE, "Expecting '" + Parser.CLOSEBRACE + "'", s);
-            return this;
-        }
-
-        public String toString() {
-            String s = "{\n";
-            for (ProgramNode r : blocks) {
-                s += r.toString();
-            }
-            return (s + "}\n");
-        }
+        public String toString() { return ProgramPrinter.toString(this); }
     }
-    class EXPR implements IntNode {
-        IntNode node = null;
+    static final class EXPR implements IntNode {
+        final IntNode node;
+        EXPR(IntNode node) { this.node = node; }
         public int evaluate(Robot robot) {
             return node.evaluate(robot);
         }
-        public IntNode parse(Scanner s) {
-            if(s.hasNext(NUMPAT)){
-                node = new NUM();
-            } else if(s.hasNext(SENS)){
-                node = new SENS();
-            } else if(s.hasNext(OP)){
-                node = new OP();
-            } else {
-                fail("expecting expression",s);
-            }
-
-            node.parse(s);
-            return node;
-        }
 
         public String toString(){ return node.toString() ;}
     }
-    class SENS implements IntNode{
-        IntNode node = null;
+    static final class SENS implements IntNode{
+        final IntNode node;
+        SENS(IntNode node) { this.node = node; }
         public int evaluate(Robot robot) {
             return node.evaluate(robot);
         }
-        public IntNode parse(Scanner s) {
-
-            if(s.hasNext("fuelLeft")){
-                node = new fuelLeft();
-            } else if(s.hasNext("oppLR")){
-                node = new oppLR();
-            } else if(s.hasNext("oppFB")){
-                node = new oppFB();
-            } else if(s.hasNext("numBarrels")){
-                node = new numBarrels();
-            } else if(s.hasNext("barrelLR")){
-                node = new barrelLR();
-            } else if(s.hasNext("barrelFB")){
-                node = new barrelFB();
-            } else if(s.hasNext("wallDist")){
-                node = new wallDist();
-            } else {
-                fail("Expecting '" + SENS + "'",s);
-            }
-            node.parse(s);
-
-            return node;
-        }
 
         public String toString() { return node.toString(); }
 
     }
-    class OP implements IntNode{
-        IntNode node = null;
+    static final class OP implements IntNode{
+        final IntNode node;
+        OP(IntNode node) { this.node = node; }
         public int evaluate(Robot robot) {
             return node.evaluate(robot);
         }
 
-        public IntNode parse(Scanner s) {
-            if(checkFor("add",s)){
-                node = new ADD();
-            } else if(checkFor("sub",s)){
-                node = new SUB();
-            } else if(checkFor("mul",s)){
-                node = new MUL();
-            } else if(checkFor("div",s)){
-                node = new DIV();
-            }
-
-            require(OPENPAREN,"Expecting '('",s);
-
-            node.parse(s);
-            return node;
-        }
-
         public String toString(){ return node.toString() ;}
     }
-    class COND implements ConditionNode{
-        ConditionNode node = null;
+    static final class COND implements ConditionNode{
+        final ConditionNode node;
+        COND(ConditionNode node) { this.node = node; }
         public boolean evaluate(Robot robot) {
             return node.evaluate(robot);
         }
-        public ConditionNode parse(Scanner s) {
-            if(s.hasNext(RELOP)){
-                node = new RELOP();
-                node.parse(s);
-                return node;
-
-            } else if(s.hasNext("and")){
-                node = new AND();
-            } else if(s.hasNext("or")){
-                node = new OR();
-            } else if(s.hasNext("not")){
-                node = new NOT();
-            } else {
-                fail("Expecting " + RELOP, s);
-            }
-
-            s.next();
-            require(OPENPAREN, "Expecting '('",s);
-
-            node.parse(s);
-            return node;
-        }
         public String toString() { return node.toString(); }
     }
-    class RELOP implements ConditionNode{
-        ConditionNode node = null;
+    static final class RELOP implements ConditionNode{
+        final ConditionNode node;
+        RELOP(ConditionNode node) { this.node = node; }
         public boolean evaluate(Robot robot) {
             return node.evaluate(robot);
         }
 
-        public ConditionNode parse(Scanner s) {
-            if(s.hasNext("gt")){
-                node = new GT();
-            } else if(s.hasNext("lt")){
-                node = new LT();
-            } else if(s.hasNext("eq")){
-                node = new EQ();
-            } else {
-                fail("Expecting " + RELOP, s);
-            }
-
-            s.next();
-            require(OPENPAREN, "Expecting '('",s);
-
-            node.parse(s);
-            return node;
-        }
-
         public String toString(){ return node.toString();}
     }
-    class NUM implements IntNode{
-        int num = 0;
+    static final class NUM implements IntNode{
+        final int num;
+        NUM(int num) { this.num = num; }
         public int evaluate(Robot robot) { return num; }
-        public IntNode parse(Scanner s) {
-            if(s.hasNext(NUMPAT)){
-                num = s.nextInt();
-            } else {
-                fail("Expecting number", s);
-            }
-            return this;
-        }
 
         public String toString() { return String.valueOf(num); }
 
     }
 
-
-    class AND implements ConditionNode{
-        ConditionNode node1 = null;
-        ConditionNode node2 = null;
+    static final class AND implements ConditionNode{
+        final ConditionNode node1;
+        final ConditionNode node2;
+        AND(ConditionNode node1, ConditionNode node2) {
+            this.node1 = node1;
+            this.node2 = node2;
+        }
         public boolean evaluate(Robot robot) {
             return node1.evaluate(robot) && node2.evaluate(robot);
         }
-        public ConditionNode parse(Scanner s) {
 
-            node1 = new COND();
-            node1.parse(s);
-            require(",", "Expecting ','",s);
-            node2 = new COND();
-            node2.parse(s);
-            require(CLOSEPAREN, "Expecting ')'",s);
-
-            return this;
-        }
-
-        public String toString(){ return "and (" + node1.toString() + "," + node2.toString() + ")";}
+        public String toString() { return ProgramPrinter.toString(this); }
 
     }
-    class OR implements ConditionNode{
-        ConditionNode node1 = null;
-        ConditionNode node2 = null;
+    static final class OR implements ConditionNode{
+        final ConditionNode node1;
+        final ConditionNode node2;
+        OR(ConditionNode node1, ConditionNode node2) {
+            this.node1 = node1;
+            this.node2 = node2;
+        }
         public boolean evaluate(Robot robot) {
             return node1.evaluate(robot) || node2.evaluate(robot);
         }
-        public ConditionNode parse(Scanner s) {
-            node1 = new COND();
-            node1.parse(s);
-            require(",", "Expecting ','",s);
-            node2 = new COND();
-            node2.parse(s);
-            require(CLOSEPAREN, "Expecting ')'",s);
 
-            return this;
+        public String toString() { return ProgramPrinter.toString(this); }
+    }
+    /**
+     * An and or an or, made by adaptive(..), that changes which operand it
+     * tests first as it learns which is the better: every so often it
+     * puts first the operand with the lower cost for each time it decides
+     * the result (false for and, true for or). An operand's cost is the
+     * time it takes, timed with System.nanoTime() on one evaluation in
+     * every SAMPLE; until both operands have been timed, it is their number
+     * of nodes. Neither operand can fail, so the order makes no difference
+     * to the result.
+     *
+     * Unlike the other nodes it keeps counts, updated without locking. Only
+     * the one robot its tree was made for should run it, but a count lost
+     * to another would just make the estimate a little rougher, and either
+     * order is right.
+     */
+    static final class ADAPTIVE implements ConditionNode {
+        private static final int PERIOD = 1024;    // evaluations between reorderings
+        private static final int SAMPLE = 16;      // evaluations per timed one
+
+        final boolean or;
+        final ConditionNode[] operands;    // in program order
+        private final int[] size;
+        private final int[] tested = new int[2], decided = new int[2];
+        private final long[] nanos = new long[2];    // the time taken by the timed evaluations
+        private final int[] timed = new int[2];
+        private int calls;
+        private int first;                 // the operand tested first
+
+        ADAPTIVE(boolean or, ConditionNode node1, ConditionNode node2, int size1, int size2) {
+            this.or = or;
+            operands = new ConditionNode[] { node1, node2 };
+            size = new int[] { size1, size2 };
         }
 
-        public String toString(){ return "or (" + node1.toString() + "," + node2.toString() + ")";}
-    }
-    class NOT implements ConditionNode{
-        ConditionNode node = null;
         public boolean evaluate(Robot robot) {
-            return !node.evaluate(robot);
+            boolean timing = (++calls % SAMPLE == 0);
+            int f = first;
+            boolean result = test(f, robot, timing);
+            if (result == or) {
+                decided[f]++;
+            } else {
+                result = test(1 - f, robot, timing);
+                if (result == or) { decided[1 - f]++; }
+            }
+            if (calls >= PERIOD) { reorder(); }
+            return result;
+        }
+
+        /** Evaluates an operand, timing it if asked to. */
+        private boolean test(int i, Robot robot, boolean timing) {
+            tested[i]++;
+            if (!timing) { return operands[i].evaluate(robot); }
+            long start = System.nanoTime();
+            boolean result = operands[i].evaluate(robot);
+            nanos[i] += System.nanoTime() - start;
+            timed[i]++;
+            return result;
+        }
+
+        /** Puts first the operand with the lower cost per decision, and ages the counts. */
+        private void reorder() {
+            calls = 0;
+            boolean measured = timed[0] > 0 && timed[1] > 0;
+            double[] score = new double[2];
+            for (int i = 0; i < 2; i++) {
+                double chance = (decided[i] + 1.0) / (tested[i] + 2.0);
+                double cost = measured ? (double) nanos[i] / timed[i] : size[i];
+                score[i] = cost / chance;
+                tested[i] /= 2;
+                decided[i] /= 2;
+                if (timed[i] > 1) {
+                    nanos[i] /= 2;
+                    timed[i] /= 2;
+                }
+            }
+            first = (score[1] < score[0]) ? 1 : 0;
         }
-        public ConditionNode parse(Scanner s) {
-            node = new COND();
-            node.parse(s);
-            require(CLOSEPAREN, "Expecting ')'",s);
 
-            return this;
+        public String toString() { return ProgramPrinter.toString(this); }
+    }
+
+    static final class NOT implements ConditionNode{
+        final ConditionNode node;
+        NOT(ConditionNode node) { this.node = node; }
+        public boolean evaluate(Robot robot) {
+            return !node.evaluate(robot);
         }
 
-        public String toString(){ return "and (" + node.toString() + ")"; }
+        public String toString() { return ProgramPrinter.toString(this); }
     }
 
-
-    class GT implements ConditionNode{
-        public IntNode conditionOne = null;
-        public IntNode conditionTwo = null;
+    static final class GT implements ConditionNode{
+        public final IntNode conditionOne;
+        public final IntNode conditionTwo;
+        GT(IntNode conditionOne, IntNode conditionTwo) {
+            this.conditionOne = conditionOne;
+            this.conditionTwo = conditionTwo;
+        }
         public boolean evaluate(Robot robot) {
             return (conditionOne.evaluate(robot)>conditionTwo.evaluate(robot));
         }
-        public ConditionNode parse(Scanner s){
-            conditionOne = new EXPR();
-            conditionOne.parse(s);
-            require(",", "Expecting ','",s);
-            conditionTwo = new EXPR();
-            conditionTwo.parse(s);
-
-            require(CLOSEPAREN, "Expecting ')'",s);
-            return this;
-        }
 
-        public String toString() { return "gt(" + conditionOne.toString() + "," + conditionTwo.toString() + ")"; }
+        public String toString() { return ProgramPrinter.toString(this); }
 
     }
-    class LT implements ConditionNode{
-        public IntNode conditionOne = null;
-        public IntNode conditionTwo = null;
+    static final class LT implements ConditionNode{
+        public final IntNode conditionOne;
+        public final IntNode conditionTwo;
+        LT(IntNode conditionOne, IntNode conditionTwo) {
+            this.conditionOne = conditionOne;
+            this.conditionTwo = conditionTwo;
+        }
         public boolean evaluate(Robot robot) {
             return (conditionOne.evaluate(robot)<conditionTwo.evaluate(robot));
         }
-        public ConditionNode parse(Scanner s){
-            conditionOne = new EXPR();
-            conditionOne.parse(s);
-            require(",", "Expecting ','",s);
-            conditionTwo = new EXPR();
-            conditionTwo.parse(s);
-
-            require(CLOSEPAREN, "Expecting ')'",s);
-            return this;
-        }
 
-        public String toString() { return "lt(" + conditionOne.toString() + "," + conditionTwo.toString() + ")"; }
+        public String toString() { return ProgramPrinter.toString(this); }
 
     }
-    class EQ implements ConditionNode{
-        public IntNode conditionOne = null;
-        public IntNode conditionTwo = null;
+    static final class EQ implements ConditionNode{
+        public final IntNode conditionOne;
+        public final IntNode conditionTwo;
+        EQ(IntNode conditionOne, IntNode conditionTwo) {
+            this.conditionOne = conditionOne;
+            this.conditionTwo = conditionTwo;
+        }
         public boolean evaluate(Robot robot) {
             return (conditionOne.evaluate(robot)==conditionTwo.evaluate(robot));
         }
-        public ConditionNode parse(Scanner s){
-            conditionOne = new EXPR();
-            conditionOne.parse(s);
-            require(",", "Expecting ','",s);
-            conditionTwo = new EXPR();
-            conditionTwo.parse(s);
 
-            require(CLOSEPAREN, "Expecting ')'",s);
-            return this;
-        }
-
-        public String toString() { return "eq(" + conditionOne.toString() + "," + conditionTwo.toString() + ")"; }
+        public String toString() { return ProgramPrinter.toString(this); }
 
     }
 
-    class ADD implements IntNode{
-        IntNode node1 = null;
-        IntNode node2 = null;
-        public int evaluate(Robot robot) { return node1.evaluate(robot) + node2.evaluate(robot);}
-        public IntNode parse(Scanner s) {
-            node1 = new EXPR();
-            node1.parse(s);
-            require(",","Expecting ','",s);
-            node2 = new EXPR();
-            node2.parse(s);
-            require(CLOSEPAREN, "Expecting '('", s);
+    // Comparisons of an expression with a number, made by specialize(..)
 
-            return this;
+    static final class LTNum implements ConditionNode {
+        final IntNode node;
+        final int num;
+        LTNum(IntNode node, int num) {
+            this.node = node;
+            this.num = num;
         }
+        public boolean evaluate(Robot robot) { return node.evaluate(robot) < num; }
 
-        public String toString(){return "add (" + node1.toString() + "," + node2.toString() + ")" ;}
+        public String toString() { return ProgramPrinter.toString(this); }
     }
-    class SUB implements IntNode{
-        IntNode node1 = null;
-        IntNode node2 = null;
-        public int evaluate(Robot robot) { return node1.evaluate(robot) - node2.evaluate(robot);}
-        public IntNode parse(Scanner s) {
-            node1 = new EXPR();
-            node1.parse(s);
-            require(",","Expecting ','",s);
-            node2 = new EXPR();
-            node2.parse(s);
-            require(CLOSEPAREN, "Expecting '('", s);
+    static final class GTNum implements ConditionNode {
+        final IntNode node;
+        final int num;
+        GTNum(IntNode node, int num) {
+            this.node = node;
+            this.num = num;
+        }
+        public boolean evaluate(Robot robot) { return node.evaluate(robot) > num; }
 
-            return this;
+        public String toString() { return ProgramPrinter.toString(this); }
+    }
+    static final class EQNum implements ConditionNode {
+        final IntNode node;
+        final int num;
+        EQNum(IntNode node, int num) {
+            this.node = node;
+            this.num = num;
         }
+        public boolean evaluate(Robot robot) { return node.evaluate(robot) == num; }
 
-        public String toString(){return "sub (" + node1.toString() + "," + node2.toString() + ")" ;}
+        public String toString() { return ProgramPrinter.toString(this); }
     }
-    class MUL implements IntNode{
-        IntNode node1 = null;
-        IntNode node2 = null;
-        public int evaluate(Robot robot) { return node1.evaluate(robot) * node2.evaluate(robot);}
-        public IntNode parse(Scanner s) {
-            node1 = new EXPR();
-            node1.parse(s);
-            require(",","Expecting ','",s);
-            node2 = new EXPR();
-            node2.parse(s);
-            require(CLOSEPAREN, "Expecting '('", s);
 
-            return this;
+    /** A condition that is always true or always false, made by optimize(..); printed as eq(0, 0) or eq(0, 1). */
+    static final class BOOL implements ConditionNode {
+        static final BOOL TRUE = new BOOL(true), FALSE = new BOOL(false);
+
+        final boolean value;
+        private BOOL(boolean value) { this.value = value; }
+        static BOOL of(boolean value) { return value ? TRUE : FALSE; }
+        public boolean evaluate(Robot robot) { return value; }
+
+        public String toString() { return ProgramPrinter.toString(this); }
+    }
+
+    static final class ADD implements IntNode{
+        final IntNode node1;
+        final IntNode node2;
+        ADD(IntNode node1, IntNode node2) {
+            this.node1 = node1;
+            this.node2 = node2;
         }
+        public int evaluate(Robot robot) { return node1.evaluate(robot) + node2.evaluate(robot);}
 
-        public String toString(){return "mul (" + node1.toString() + "," + node2.toString() + ")" ;}
+        public String toString() { return ProgramPrinter.toString(this); }
     }
-    class DIV implements IntNode{
-        IntNode node1 = null;
-        IntNode node2 = null;
-        public int evaluate(Robot robot) { return node1.evaluate(robot) / node2.evaluate(robot);}
-        public IntNode parse(Scanner s) {
-            node1 = new EXPR();
-            node1.parse(s);
-            require(",","Expecting ','",s);
-            node2 = new EXPR();
-            node2.parse(s);
-            require(CLOSEPAREN, "Expecting '('", s);
+    static final class SUB implements IntNode{
+        final IntNode node1;
+        final IntNode node2;
+        SUB(IntNode node1, IntNode node2) {
+            this.node1 = node1;
+            this.node2 = node2;
+        }
+        public int evaluate(Robot robot) { return node1.evaluate(robot) - node2.evaluate(robot);}
 
-            return this;
+        public String toString() { return ProgramPrinter.toString(this); }
+    }
+    static final class MUL implements IntNode{
+        final IntNode node1;
+        final IntNode node2;
+        MUL(IntNode node1, IntNode node2) {
+            this.node1 = node1;
+            this.node2 = node2;
         }
+        public int evaluate(Robot robot) { return node1.evaluate(robot) * node2.evaluate(robot);}
 
-        public String toString(){return "div (" + node1.toString() + "," + node2.toString() + ")" ;}
+        public String toString() { return ProgramPrinter.toString(this); }
     }
+    static final class DIV implements IntNode{
+        final IntNode node1;
+        final IntNode node2;
+        DIV(IntNode node1, IntNode node2) {
+            this.node1 = node1;
+            this.node2 = node2;
+        }
+        public int evaluate(Robot robot) { return node1.evaluate(robot) / node2.evaluate(robot);}
 
+        public String toString() { return ProgramPrinter.toString(this); }
+    }
 
-    class fuelLeft implements IntNode{
+    static final class fuelLeft implements IntNode{
         public int evaluate(Robot robot) { return robot.getFuel(); }
-        public IntNode parse(Scanner s) {
-            require("fuelLeft","Expecting 'fuelLeft'",s);
-            return this;
-        }
 
         public String toString(){ return "fuelLeft"; }
     }
-    class oppLR implements IntNode{
+    static final class oppLR implements IntNode{
         public int evaluate(Robot robot) { return robot.getOpponentLR(); }
-        public IntNode parse(Scanner s) {
-            require("oppLR","Expecting 'oppLR'",s);
-            return this;
-        }
 
         public String toString(){ return "oppLR"; }
 
     }
-    class oppFB implements IntNode{
+    static final class oppFB implements IntNode{
         public int evaluate(Robot robot) { return robot.getOpponentFB(); }
-        public IntNode parse(Scanner s) {
-            require("oppFB","Expecting 'oppFB'",s);
-            return this;
-        }
 
         public String toString(){ return "oppFB"; }
 
     }
-    class numBarrels implements IntNode{
+    static final class numBarrels implements IntNode{
         public int evaluate(Robot robot) { return robot.numBarrels(); }
-        public IntNode parse(Scanner s) {
-            require("numBarrels","Expecting 'numBarrels'",s);
-            return this;
-        }
 
         public String toString(){ return "numBarrels"; }
 
     }
-    class barrelLR implements IntNode{
+    static final class barrelLR implements IntNode{
         public int evaluate(Robot robot) { return robot.getClosestBarrelLR(); }
-        public IntNode parse(Scanner s) {
-            require("barrelLR","Expecting 'barrelLR'",s);
-            return this;
-        }
 
         public String toString(){ return "barrelLR"; }
 
     }
-    class barrelFB implements IntNode{
+    static final class barrelFB implements IntNode{
         public int evaluate(Robot robot) { return robot.getClosestBarrelFB(); }
-        public IntNode parse(Scanner s) {
-            require("barrelFB","Expecting 'barrelFB'",s);
-            return this;
-        }
 
         public String toString(){ return "barrelFB"; }
 
     }
-    class wallDist implements IntNode{
+    // barrelLR(n) and barrelFB(n): the nth closest barrel
+    static final class barrelLRAt implements IntNode {
+        final IntNode index;
+        barrelLRAt(IntNode index) { this.index = index; }
+        public int evaluate(Robot robot) { return robot.getBarrelLR(index.evaluate(robot)); }
+        public String toString() { return ProgramPrinter.toString(this); }
+    }
+    static final class barrelFBAt implements IntNode {
+        final IntNode index;
+        barrelFBAt(IntNode index) { this.index = index; }
+        public int evaluate(Robot robot) { return robot.getBarrelFB(index.evaluate(robot)); }
+        public String toString() { return ProgramPrinter.toString(this); }
+    }
+    static final class wallDist implements IntNode{
         public int evaluate(Robot robot) { return robot.getDistanceToWall(); }
-        public IntNode parse(Scanner s) {
-            require("wallDist","Expecting 'wallDist'",s);
-            return this;
-        }
 
         public String toString(){ return "wallDist"; }
 
     }
-    class moveNode implements ProgramNode {
-        IntNode node = null;
+    /** A $variable: its value is the robot's frame()[slot]. */
+    static final class VAR implements IntNode {
+        final int slot;
+        final String name;
+        VAR(int slot, String name) {
+            this.slot = slot;
+            this.name = name;
+        }
+        public int evaluate(Robot robot) { return robot.frame()[slot]; }
+        public String toString() { return "$" + name; }
+    }
+    static final class ASSGN implements ProgramNode {
+        final VAR var;
+        final IntNode node;
+        ASSGN(VAR var, IntNode node) {
+            this.var = var;
+            this.node = node;
+        }
+        public void execute(Robot robot) { robot.frame()[var.slot] = node.evaluate(robot); }
+        public String toString() { return ProgramPrinter.toString(this); }
+    }
+    static final class moveNode implements ProgramNode {
+        final IntNode node;
+        moveNode(IntNode node) {
+            this.node = node;
+        }
         public void execute(Robot robot) {
-            if(node != null){
-                for(int i = 0; i < node.evaluate(robot); i++){
-                    robot.move();
-                }
+            if (node != null) {
+                robot.move(node.evaluate(robot));    // n is worked out once, and the steps done all at once
             } else {
                 robot.move();
             }
         }
-        public ProgramNode parse(Scanner s) {
-            if(checkFor(OPENPAREN, s)){
-                node = new EXPR();
-                node.parse(s);
-                require(CLOSEPAREN, "Expecting ')'", s);
-            }
-            return this;
-        }
-        public String toString() {
-            String move = "move";
-
-            if(node != null){
-                move += ("(" + node.toString() + ")");
-            }
-            return move;
-        }
+        public String toString() { return ProgramPrinter.toString(this); }
+    }
+    // move and wait with no argument, made by specialize(..)
+    static final class moveOnceNode implements ProgramNode {
+        public void execute(Robot robot) { robot.move(); }
+        public String toString() { return "move"; }
+    }
+    static final class waitOnceNode implements ProgramNode {
+        public void execute(Robot robot) { robot.idleWait(); }
+        public String toString() { return "wait"; }
     }
-    class turnLNode implements ProgramNode {
+    static final class turnLNode implements ProgramNode {
         public void execute(Robot robot) { robot.turnLeft(); }
-        public ProgramNode parse(Scanner s) { return null; }
         public String toString() { return "turnL"; }
     }
-    class turnRNode implements ProgramNode {
+    static final class turnRNode implements ProgramNode {
         public void execute(Robot robot) { robot.turnRight(); }
-        public ProgramNode parse(Scanner s) { return null; }
         public String toString() { return "turnR"; }
     }
-    class takeFuelNode implements ProgramNode {
+    static final class takeFuelNode implements ProgramNode {
         public void execute(Robot robot) { robot.takeFuel(); }
-        public ProgramNode parse(Scanner s) { return null; }
 
         public String toString() { return "takeFuel"; }
     }
-    class waitNode implements ProgramNode {
-        IntNode node = null;
+    static final class waitNode implements ProgramNode {
+        final IntNode node;
+        waitNode(IntNode node) {
+            this.node = node;
+        }
         public void execute(Robot robot) {
-            if(node != null){
-                for(int i = 0; i < node.evaluate(robot); i++){ robot.idleWait();  }
+            if (node != null) {
+                robot.idleWait(node.evaluate(robot));
             } else {
                 robot.idleWait();
             }
         }
-        public ProgramNode parse(Scanner s) {
-            if(checkFor(OPENPAREN, s)){
-                node = new EXPR();
-                node.parse(s);
-                require(CLOSEPAREN, "Expecting ')'", s);
-            }
-            return this;
-        }
-        public String toString() {
-            String wait = "wait";
-
-            if(node != null){
-                wait += ("(" + node.toString() + ")");
-            }
-            return wait;
-        }
+        public String toString() { return ProgramPrinter.toString(this); }
     }
-    class turnAroundNode implements ProgramNode {
+    static final class turnAroundNode implements ProgramNode {
         public void execute(Robot robot) { robot.turnAround(); }
-        public ProgramNode parse(Scanner s) { return null; }
         public String toString() {
             return "turnAround";
         }
     }
-    class shieldOnNode implements ProgramNode {
+    static final class shieldOnNode implements ProgramNode {
         public void execute(Robot robot) { robot.setShield(true); }
-        public ProgramNode parse(Scanner s) { return null; }
         public String toString() {
             return "shieldOn";
         }
     }
-    class shieldOffNode implements ProgramNode {
+    static final class shieldOffNode implements ProgramNode {
         public void execute(Robot robot) { robot.setShield(false); }
-        public ProgramNode parse(Scanner s) { return null; }
         public String toString() {
             return "shieldOff";
         }
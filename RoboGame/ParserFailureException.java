@@ -1,6 +1,17 @@
 @SuppressWarnings("serial")
 public class ParserFailureException extends RuntimeException {
+	/** Where in the source the parser failed (0 if not known). */
+	public final int line, column;
+	public final long offset;
+
 	public ParserFailureException(String msg) {
+		this(msg, 0, 0, 0);
+	}
+
+	public ParserFailureException(String msg, int line, int column, long offset) {
 		super(msg);
+		this.line = line;
+		this.column = column;
+		this.offset = offset;
 	}
 }
@@ -1,6 +1,15 @@
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.swing.JFileChooser;
 
 public class ParserTester{
@@ -12,12 +21,41 @@ public class ParserTester{
      *
      * Calling main with arguments will treat each argument as a file name
      * and will attempt to parse and print each file.
+     *
+     * Calling main with -validate followed by file names will only check
+     * the syntax of each file, reporting "valid" or where the error is.
+     *
+     * Calling main with -lint followed by files or directories will check
+     * every .prog file in them (and their subdirectories) on a pool of
+     * threads, reporting all the errors in each file, then print how many
+     * files and megabytes per second were checked.
+     *
+     * Calling main with -optimize followed by file names will parse each
+     * file and print the program as Parser.optimize(..) rewrites it.
+     *
+     * Calling main with -incremental followed by file names will make a
+     * series of random edits (some of them undone) to each file, parse each
+     * version both with an IncrementalParser and from scratch, and report
+     * every version on which the two differ. The edits are seeded, so a run
+     * can be repeated.
      */
 
     public static void main(String[] args) {
         Parser parser = new Parser();
         System.out.println("=================");
-        if (args.length > 0) {
+        if (args.length > 0 && args[0].equals("-lint")) {
+            lint(parser, Arrays.copyOfRange(args, 1, args.length));
+        } else if (args.length > 0 && args[0].equals("-incremental")) {
+            incremental(parser, Arrays.copyOfRange(args, 1, args.length));
+        } else if (args.length > 0 && args[0].equals("-optimize")) {
+            for (int i = 1; i < args.length; i++) {
+                optimizeFile(parser, new File(args[i]));
+            }
+        } else if (args.length > 0 && args[0].equals("-validate")) {
+            for (int i = 1; i < args.length; i++) {
+                validateFile(parser, new File(args[i]));
+            }
+        } else if (args.length > 0) {
             for (String arg : args) {
                 File file = new File(arg);
                 if (file.exists()) {testParserOnFile(parser, file);}
@@ -34,21 +72,186 @@ public class ParserTester{
         System.out.println("Done");
     }
 
+    /**
+     * Checks the syntax of a single file without building a tree.
+     */
+    static void validateFile(Parser parser, File file){
+        try{
+            Validation result = parser.validate(file.toPath());
+            System.out.println(file + ": " + result.toString().replaceAll("\\n", " "));
+        }
+        catch (IOException e) {
+            System.out.println(file + ": could not be read: " + e);
+        }
+    }
+
+    /**
+     * Checks every program file under the given paths in parallel. The
+     * results are printed in file name order as they become available.
+     */
+    static void lint(Parser parser, String[] paths) {
+        List<Path> files = new ArrayList<>();
+        for (String arg : paths) {
+            try (Stream<Path> tree = Files.walk(new File(arg).toPath())) {
+                files.addAll(tree.filter(p -> Files.isRegularFile(p) && p.toString().endsWith(".prog"))
+                                 .collect(Collectors.toList()));
+            } catch (IOException e) {
+                System.out.println("Can't read '" + arg + "': " + e);
+            }
+        }
+        Collections.sort(files);
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        List<Future<String>> results = new ArrayList<>();
+        long[] bytes = new long[files.size()];
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            int index = i;
+            results.add(pool.submit(() -> {
+                byte[] data = Files.readAllBytes(file);
+                bytes[index] = data.length;
+                // read as ASCII, like FileLexer
+                List<Validation> errors = parser.validateAll(new String(data, StandardCharsets.ISO_8859_1));
+                if (errors.isEmpty()) { return file + ": valid\n"; }
+                StringBuilder report = new StringBuilder();
+                for (Validation v : errors) {
+                    report.append(file).append(':').append(v.toString().replaceAll("\\n", " ")).append('\n');
+                }
+                return report.toString();
+            }));
+        }
+        int invalid = 0, unreadable = 0;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                String report = results.get(i).get();
+                if (!report.endsWith(": valid\n")) { invalid++; }
+                System.out.print(report);
+            } catch (Exception e) {
+                unreadable++;
+                System.out.println(files.get(i) + ": could not be read: " + e.getCause());
+            }
+        }
+        pool.shutdown();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long total = 0;
+        for (long b : bytes) { total += b; }
+        System.out.printf("%d files (%d invalid, %d unreadable), %.2f MB in %.3f s on %d threads: %.0f files/sec, %.1f MB/sec%n",
+                          files.size(), invalid, unreadable, total / 1e6, seconds, threads,
+                          files.size() / seconds, total / 1e6 / seconds);
+    }
+
+    private static final int EDITS = 400;    // versions of each file for -incremental
+    private static final String[] SNIPPETS = {
+        " ", "\n", ";", "{", "}", "(", ")", ",", "move;", "turnL;", "wait(2);", "$x = 1;", "$y = add($x, 2);",
+        "if (gt(fuelLeft, 1)) { wait; }", "} else { move; }", "elif (eq(oppLR, 0)) { turnR; }",
+        "while (lt($x, 3)) { $x = add($x, 1); }", "loop { takeFuel; }", "barrelFB", "0", "-7",
+    };
+
+    /**
+     * Parses random edits of each file with an IncrementalParser and with
+     * a full parse, and reports the versions on which they differ. Each
+     * edit is made to the last version that parsed, so most versions are
+     * close to a valid program, and most of their statements can be reused.
+     */
+    static void incremental(Parser parser, String[] files) {
+        Random rand = new Random(261);
+        int versions = 0, valid = 0, reused = 0, differ = 0;
+        for (String name : files) {
+            String good;
+            try {
+                good = Files.readString(Path.of(name), StandardCharsets.ISO_8859_1);
+            } catch (IOException e) {
+                System.out.println("Can't read '" + name + "': " + e);
+                continue;
+            }
+            IncrementalParser incremental = new IncrementalParser();
+            for (int i = 0; i <= EDITS; i++) {
+                String version = (i == 0) ? good : edit(good, rand);
+                String full = outcome(() -> parser.parse(version));
+                String partial = outcome(() -> incremental.parse(version));
+                versions++;
+                if (!full.equals(partial)) {
+                    differ++;
+                    System.out.println("BAD, " + name + " edit " + i + ": parsed " + full + ", incrementally " + partial);
+                    System.out.println(version);
+                } else if (!full.startsWith("error")) {
+                    good = version;
+                    valid++;
+                    reused += incremental.reused();
+                }
+            }
+            System.out.println(name + ": " + (EDITS + 1) + " versions checked");
+        }
+        System.out.println(versions + " versions (" + valid + " valid, reusing " + reused + " statements), "
+                           + differ + " parsed differently by the IncrementalParser");
+    }
+
+    /**
+     * A random edit: deletes some text, or inserts a snippet, or both,
+     * usually just after a ';', '{' or '}', where a statement could start.
+     */
+    private static String edit(String text, Random rand) {
+        int at = rand.nextInt(text.length() + 1);
+        if (rand.nextInt(3) > 0) {
+            while (at < text.length() && "{};".indexOf(text.charAt(at)) < 0) { at++; }
+            at = Math.min(text.length(), at + 1);
+        }
+        int end = Math.min(text.length(), at + rand.nextInt(3) * rand.nextInt(12));
+        String insert = (rand.nextInt(4) == 0) ? "" : SNIPPETS[rand.nextInt(SNIPPETS.length)];
+        return text.substring(0, at) + insert + text.substring(end);
+    }
+
+    /**
+     * What a parse gave, to compare: the Parser's events for the tree
+     * (which include each variable's slot), or the error.
+     */
+    private static String outcome(Supplier<ProgramNode> parse) {
+        try {
+            ProgramNode prog = parse.get();
+            if (prog == null) { return "no program"; }
+            ProgramCache.Recorder events = new ProgramCache.Recorder();
+            Parser.emit(prog, events);
+            return ProgramPrinter.toCompactString(prog) + " " + Arrays.toString(events.toByteArray());
+        } catch (ParserFailureException e) {
+            return "error at " + e.offset + ": " + e.getMessage().replace('\n', ' ');
+        } catch (RuntimeException e) {
+            return "broke " + e;
+        }
+    }
+
+    /**
+     * Parses a single file and prints the optimized program.
+     */
+    static void optimizeFile(Parser parser, File file){
+        System.out.println("Optimizing '" + file + "'");
+        try{
+            ProgramPrinter.print(Parser.optimize(parser.parse(file.toPath())), System.out);
+        }
+        catch (IOException e) {
+            System.out.println("Robot program source file could not be read: " + e);
+        }
+        catch (ParserFailureException e) {
+            System.out.println("Parser error:");
+            System.out.println(e.getMessage());
+        }
+        System.out.println("=================");
+    }
+
     /**
      * Tests the parser on a single file.
      */
     static void testParserOnFile(Parser parser, File file){
         System.out.println("Parsing '" + file + "'");
         try{
-            Scanner scan = new Scanner(file);
-            ProgramNode prog = parser.parse(scan);
+            ProgramNode prog = parser.parse(file.toPath());
             System.out.println("Parsing completed ");
             if (prog == null) {System.out.println("No program generated"); }
-            else              {System.out.println("Program: \n" + prog); }
-            scan.close();
+            else              {System.out.println("Program: "); ProgramPrinter.print(prog, System.out); }
         }
-        catch (FileNotFoundException e) {
-            System.out.println("Robot program source file not found");
+        catch (IOException e) {
+            System.out.println("Robot program source file could not be read: " + e);
         }
         catch (ParserFailureException e) {
             System.out.println("Parser error:");
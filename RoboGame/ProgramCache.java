@@ -0,0 +1,370 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A cache of parsed programs, keyed by a SHA-256 hash of the source text.
+ *
+ * Each program is stored on disk in a compact binary form: the Parser's
+ * AstBuilder events, one byte per node plus a varint per literal (and a
+ * slot and name per variable). Loading
+ * from the cache replays those events into a TreeBuilder, so the tree is
+ * exactly what parsing would have given, without lexing or parsing again.
+ * Recently used trees are also kept in memory (they are immutable, so they
+ * can be shared), so loading the same file again costs only the hash.
+ * The cache only ever holds the Parser's trees: a program prepared for
+ * the ADAPTIVE engine keeps counts as it runs (see Parser.adaptive(..)),
+ * so it is made afresh from a cached tree for each robot, and never
+ * cached itself.
+ *
+ * The cache directory is kept under a size limit by deleting the least
+ * recently used entries. The size of the entries is scanned once, then kept
+ * as a running total, so the directory is only listed again when the total
+ * goes over the limit. Programs that fail to parse are never cached.
+ */
+public class ProgramCache {
+
+    /** Format version of the cache files; bump it when Op numbers change. */
+    static final int VERSION = 2;
+
+    private static final byte[] MAGIC = { 'R', 'A', 'S', 'T' };
+    private static final int CLOSE = 0xFF;
+    private static final int MAX_LOADED = 64;
+
+    private static ProgramCache shared;
+
+    private final Path dir;
+    private final long maxBytes;
+    private long bytes = -1;    // the size of the entries on disk, or -1 until the directory is first scanned
+    private final Map<String, ProgramNode> loaded = new LinkedHashMap<>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, ProgramNode> eldest) {
+            return size() > MAX_LOADED;
+        }
+    };
+
+    public ProgramCache(Path dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /** The cache used by the game, in RoboGame.CACHE_DIRECTORY. */
+    public static synchronized ProgramCache shared() {
+        if (shared == null) {
+            shared = new ProgramCache(Paths.get(RoboGame.CACHE_DIRECTORY), 16L << 20);
+        }
+        return shared;
+    }
+
+    /**
+     * Returns the parsed program in the given file: from memory or disk if
+     * a file with the same contents has been parsed before, otherwise by
+     * parsing it (and then caching the result).
+     * Throws ParserFailureException if the program is invalid.
+     *
+     * The file is read once: it is mapped, and the key is the hash of the
+     * mapped bytes, which are then lexed if the program isn't cached. A
+     * file too big to map is hashed as it is streamed to the lexer, so it
+     * is read a second time only if it isn't cached; it is then stored
+     * under the hash of what was lexed.
+     */
+    public ProgramNode load(Path source) throws IOException {
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size <= FileLexer.MAP_LIMIT) {
+                ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                MessageDigest digest = sha256();
+                digest.update(bytes.duplicate());
+                String key = hex(digest);
+                ProgramNode prog = find(key);
+                if (prog == null) {
+                    prog = parseAndStore(new FileLexer(bytes), () -> key);
+                }
+                return remember(key, prog);
+            }
+            String key = hash(channel);
+            ProgramNode prog = find(key);
+            if (prog != null) { return remember(key, prog); }
+            channel.position(0);
+            MessageDigest digest = sha256();
+            String[] lexed = new String[1];
+            prog = parseAndStore(new FileLexer(channel, digest), () -> lexed[0] = hex(digest));
+            return remember(lexed[0], prog);
+        }
+    }
+
+    /** The program with the given key, from memory or disk, or null. */
+    private ProgramNode find(String key) {
+        synchronized (loaded) {
+            ProgramNode prog = loaded.get(key);
+            if (prog != null) { return prog; }
+        }
+        return read(key);
+    }
+
+    private ProgramNode remember(String key, ProgramNode prog) {
+        synchronized (loaded) {
+            loaded.put(key, prog);
+        }
+        return prog;
+    }
+
+    //----------------------------------------------------------------
+
+    private Path entry(String key) {
+        return dir.resolve(key + ".ast");
+    }
+
+    /**
+     * Reads a cached program, or returns null if there is no usable entry.
+     * An unreadable or corrupt entry is deleted.
+     */
+    private ProgramNode read(String key) {
+        Path file = entry(key);
+        if (!Files.isRegularFile(file)) { return null; }
+        try {
+            byte[] data = Files.readAllBytes(file);
+            Parser.TreeBuilder tree = new Parser.TreeBuilder();
+            replay(data, tree);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return tree.result();
+        } catch (IOException | RuntimeException e) {
+            try { delete(file); } catch (IOException ignored) {}
+            return null;
+        }
+    }
+
+    /**
+     * Parses the program and caches it under the key, which is asked for
+     * only once the whole program has been lexed.
+     */
+    private ProgramNode parseAndStore(FileLexer lexer, Supplier<String> key) throws IOException {
+        Recorder recorder = new Recorder();
+        Parser.TreeBuilder tree = new Parser.TreeBuilder();
+        Parser.parse(lexer, new AstBuilder() {
+            public void open(int op) { recorder.open(op); tree.open(op); }
+            public void literal(int value) { recorder.literal(value); tree.literal(value); }
+            public void variable(int slot, String name) { recorder.variable(slot, name); tree.variable(slot, name); }
+            public void close() { recorder.close(); tree.close(); }
+        });
+        try {
+            store(key.get(), recorder.toByteArray());
+        } catch (IOException e) {
+            System.out.println("Could not cache parsed program: " + e);
+        }
+        return tree.result();
+    }
+
+    /**
+     * Writes an entry (to a temporary file first, so readers never see half
+     * of one) and then trims the cache back under its size limit.
+     */
+    private void store(String key, byte[] data) throws IOException {
+        Files.createDirectories(dir);
+        Path file = entry(key);
+        Path tmp = Files.createTempFile(dir, key, ".tmp");
+        try {
+            Files.write(tmp, data);
+            synchronized (this) {
+                long replaced = Files.isRegularFile(file) ? Files.size(file) : 0;
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                if (bytes < 0) { bytes = scan(); }
+                else { bytes += data.length - replaced; }
+                if (bytes > maxBytes) { evict(); }
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** Deletes an entry, keeping the running total. */
+    private synchronized void delete(Path file) throws IOException {
+        long size = Files.isRegularFile(file) ? Files.size(file) : 0;
+        if (Files.deleteIfExists(file) && bytes >= 0) { bytes -= size; }
+    }
+
+    /** The total size of the entries on disk. */
+    private long scan() throws IOException {
+        long total = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.ast")) {
+            for (Path f : files) { total += Files.size(f); }
+        }
+        return total;
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache is down to
+     * three quarters of its limit. Only called once the running total is
+     * over the limit, so the directory is listed only then, and (with the
+     * quarter freed) not again for a good many stores; the total is worked
+     * out again from the listing, in case another process has changed the
+     * cache.
+     */
+    private void evict() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.ast")) {
+            for (Path f : files) {
+                entries.add(f);
+                total += Files.size(f);
+            }
+        }
+        entries.sort(Comparator.comparing(f -> {
+            try { return Files.getLastModifiedTime(f); }
+            catch (IOException e) { return FileTime.fromMillis(0); }
+        }));
+        long target = maxBytes - maxBytes / 4;
+        for (Path f : entries) {
+            if (total <= target) { break; }
+            total -= Files.size(f);
+            Files.deleteIfExists(f);
+        }
+        bytes = total;
+    }
+
+    /**
+     * SHA-256 of the file's bytes, in hex. The file is mapped a block at a
+     * time rather than read, so hashing a large file does not need a large
+     * buffer.
+     */
+    static String hash(FileChannel channel) throws IOException {
+        MessageDigest digest = sha256();
+        long size = channel.size();
+        for (long pos = 0; pos < size; pos += FileLexer.MAP_LIMIT) {
+            long len = Math.min(FileLexer.MAP_LIMIT, size - pos);
+            ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+            digest.update(bytes);
+        }
+        return hex(digest);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** The digest's hash, in hex. */
+    private static String hex(MessageDigest digest) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    //----------------------------------------------------------------
+    // The binary form: MAGIC, VERSION, then one byte per event.
+    // open(op) is the byte op, close() is 0xFF, literal(n) is the byte
+    // Op.NUM followed by n as a zigzag varint, and variable(slot, name) is
+    // the byte Op.VAR followed by the slot and the name's length as varints,
+    // then the name (which is ASCII, as the Lexer only allows letters,
+    // digits and _).
+
+    /** Records the Parser's events in the binary form. */
+    static class Recorder implements AstBuilder {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Recorder() {
+            out.writeBytes(MAGIC);
+            out.write(VERSION);
+        }
+
+        public void open(int op) {
+            out.write(op);
+        }
+
+        public void literal(int value) {
+            out.write(Op.NUM);
+            varint((value << 1) ^ (value >> 31));
+        }
+
+        public void variable(int slot, String name) {
+            out.write(Op.VAR);
+            varint(slot);
+            varint(name.length());
+            out.writeBytes(name.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        private void varint(int v) {
+            while ((v & ~0x7F) != 0) {
+                out.write((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            out.write(v);
+        }
+
+        public void close() {
+            out.write(CLOSE);
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Feeds the events stored in data to a builder.
+     * Throws IOException if the data is not a complete, current-version entry.
+     */
+    static void replay(byte[] data, AstBuilder b) throws IOException {
+        if (data.length < MAGIC.length + 1) { throw new IOException("truncated cache entry"); }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[i] != MAGIC[i]) { throw new IOException("not a cache entry"); }
+        }
+        if (data[MAGIC.length] != VERSION) { throw new IOException("old cache entry"); }
+        int depth = 0;
+        int[] at = { MAGIC.length + 1 };
+        while (at[0] < data.length) {
+            int code = data[at[0]++] & 0xFF;
+            if (code == CLOSE) {
+                if (--depth < 0) { throw new IOException("corrupt cache entry"); }
+                b.close();
+            } else if (code == Op.NUM) {
+                int v = varint(data, at);
+                b.literal((v >>> 1) ^ -(v & 1));
+            } else if (code == Op.VAR) {
+                int slot = varint(data, at);
+                int length = varint(data, at);
+                if (slot < 0 || length < 0 || length > data.length - at[0]) { throw new IOException("corrupt cache entry"); }
+                b.variable(slot, new String(data, at[0], length, StandardCharsets.US_ASCII));
+                at[0] += length;
+            } else if (code < Op.COUNT) {
+                depth++;
+                b.open(code);
+            } else {
+                throw new IOException("corrupt cache entry");
+            }
+        }
+        if (depth != 0) { throw new IOException("truncated cache entry"); }
+    }
+
+    /** Reads the varint at data[at[0]..], moving at[0] past it. */
+    private static int varint(byte[] data, int[] at) throws IOException {
+        int v = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (at[0] == data.length || shift > 28) { throw new IOException("corrupt cache entry"); }
+            int part = data[at[0]++];
+            v |= (part & 0x7F) << shift;
+            if (part >= 0) { return v; }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.event.ActionEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.swing.JButton;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.Highlighter;
+
+/**
+ * A window for editing a robot program, which checks the program as it is
+ * typed.
+ *
+ * Each change to the text (re)starts a short delay; when the typing pauses,
+ * the text is parsed on a background thread by an IncrementalParser, so only
+ * the statements around the edit are parsed again and the interface never
+ * waits for the parser. The result is shown in the status line, and the line
+ * of a syntax error is highlighted.
+ */
+@SuppressWarnings("serial")
+public class ProgramEditor extends JFrame {
+
+    private static final int DELAY = 300;    // milliseconds to wait after the last keystroke
+    private static final Color ERROR_COLOUR = new Color(255, 200, 200);
+
+    private final File file;
+    private final Consumer<File> onSave;
+
+    private final JTextArea text = new JTextArea(30, 60);
+    private final JLabel status = new JLabel(" ");
+    private Object errorHighlight;
+
+    // the parser is used only on the checker thread
+    private final IncrementalParser parser = new IncrementalParser();
+    private final ScheduledExecutorService checker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "program checker");
+        t.setDaemon(true);
+        return t;
+    });
+    private ScheduledFuture<?> pending;
+    private int version;    // counts edits, so stale results can be ignored
+
+    /**
+     * Opens an editor on the given file. onSave is called (on the event
+     * thread) after the program has been saved.
+     */
+    public ProgramEditor(File file, Consumer<File> onSave) {
+        super("Edit " + file.getName());
+        this.file = file;
+        this.onSave = onSave;
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+
+        text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 13));
+        text.setTabSize(4);
+        try {
+            if (file.exists()) {
+                text.setText(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+                text.setCaretPosition(0);
+            }
+        } catch (IOException e) {
+            status.setText("Could not read " + file.getName() + ": " + e.getMessage());
+        }
+        text.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) { changed(); }
+            public void removeUpdate(DocumentEvent e) { changed(); }
+            public void changedUpdate(DocumentEvent e) {}
+        });
+
+        JButton save = new JButton("Save");
+        save.addActionListener((ActionEvent e) -> save());
+        JPanel bottom = new JPanel(new BorderLayout());
+        bottom.add(status, BorderLayout.CENTER);
+        bottom.add(save, BorderLayout.EAST);
+
+        add(new JScrollPane(text), BorderLayout.CENTER);
+        add(bottom, BorderLayout.SOUTH);
+        addWindowListener(new WindowAdapter() {
+            public void windowClosed(WindowEvent e) { checker.shutdownNow(); }
+        });
+
+        changed();
+        pack();
+        setLocationByPlatform(true);
+        setVisible(true);
+    }
+
+    /** Schedules a check of the current text, replacing any that has not started. */
+    private void changed() {
+        if (pending != null) { pending.cancel(false); }
+        String program = text.getText();
+        int v = ++version;
+        pending = checker.schedule(() -> check(program, v), DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /** Runs on the checker thread. */
+    private void check(String program, int v) {
+        String message;
+        int errorLine = -1;
+        try {
+            long start = System.nanoTime();
+            parser.parse(program);
+            long micros = (System.nanoTime() - start) / 1000;
+            message = "OK (parsed " + parser.parsed() + " statements, reused "
+                + parser.reused() + ", in " + micros + "us)";
+        } catch (ParserFailureException e) {
+            message = "Line " + e.line + ": " + e.getMessage().replace('\n', ' ');
+            errorLine = e.line;
+        } catch (RuntimeException e) {
+            message = "Parser broke: " + e;
+        }
+        String shown = message;
+        int line = errorLine;
+        SwingUtilities.invokeLater(() -> {
+            if (v == version) { show(shown, line); }
+        });
+    }
+
+    private void show(String message, int line) {
+        status.setText(message);
+        Highlighter h = text.getHighlighter();
+        if (errorHighlight != null) {
+            h.removeHighlight(errorHighlight);
+            errorHighlight = null;
+        }
+        if (line > 0 && line <= text.getLineCount()) {
+            try {
+                errorHighlight = h.addHighlight(text.getLineStartOffset(line - 1), text.getLineEndOffset(line - 1),
+                                                new DefaultHighlighter.DefaultHighlightPainter(ERROR_COLOUR));
+            } catch (BadLocationException e) {
+                // the line is gone; leave it unmarked
+            }
+        }
+    }
+
+    private void save() {
+        try {
+            Files.write(file.toPath(), text.getText().getBytes(StandardCharsets.UTF_8));
+            onSave.accept(file);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Could not save " + file.getName() + ": " + e.getMessage());
+        }
+    }
+}
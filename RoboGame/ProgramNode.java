@@ -1,11 +1,9 @@
 /**
  * Interface for all nodes that can be executed,
- * including the top level program node
+ * including the top level program node.
+ * Nodes are immutable, so one program may be executed by several robots
+ * (on several threads) at the same time.
  */
-import java.util.Scanner;
-
 interface ProgramNode {
     public void execute(Robot robot);
-
-    public ProgramNode parse(Scanner s);
 }
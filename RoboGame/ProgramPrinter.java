@@ -0,0 +1,160 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Prints programs as source text, straight into an Appendable (a Writer,
+ * a PrintStream, a StringBuilder, ...), in one pass over the program.
+ *
+ * There are two forms: the normal form puts each statement on its own line,
+ * indented by how deeply it is nested, and the compact form is a canonical
+ * single line with no optional spaces. Either can be parsed again to give
+ * the same program.
+ *
+ * The printer is an AstBuilder, so it prints whatever reports its structure
+ * to it: a tree (Parser.emit), a FlatProgram, or the Parser itself.
+ */
+public final class ProgramPrinter implements AstBuilder {
+
+    private static final String INDENT = "    ";
+
+    private final Appendable out;
+    private final boolean pretty;
+
+    // the nodes that are open, and how many children each has had so far
+    private int[] ops = new int[16], counts = new int[16];
+    private int depth;
+    private int blocks;         // open BLOCKs, for the indentation
+    private boolean started;    // whether anything has been written yet
+
+    private ProgramPrinter(Appendable out, boolean pretty) {
+        this.out = out;
+        this.pretty = pretty;
+    }
+
+    /** Prints a program one statement per line, indented. */
+    public static void print(ProgramNode prog, Appendable out) throws IOException {
+        print(prog, out, true);
+    }
+
+    /** Prints a program in the compact form, on a single line. */
+    public static void printCompact(ProgramNode prog, Appendable out) throws IOException {
+        print(prog, out, false);
+    }
+
+    /** The normal printed form of a program, or of any node of a tree. */
+    static String toString(Object node) {
+        StringBuilder text = new StringBuilder();
+        try {
+            print(node, text, true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);    // a StringBuilder never throws
+        }
+        return text.toString();
+    }
+
+    /** The compact form of a program. */
+    public static String toCompactString(ProgramNode prog) {
+        StringBuilder text = new StringBuilder();
+        try {
+            print(prog, text, false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return text.toString();
+    }
+
+    private static void print(Object node, Appendable out, boolean pretty) throws IOException {
+        ProgramPrinter printer = new ProgramPrinter(out, pretty);
+        try {
+            if (node instanceof FlatProgram) { ((FlatProgram) node).emit(printer); }
+            else { Parser.emit(node, printer); }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    //----------------------------------------------------------------
+
+    public void open(int op) {
+        beforeChild(op);
+        if (op == Op.BLOCK) {
+            write("{");
+            blocks++;
+        } else if (op == Op.IF || op == Op.ELIF || op == Op.WHILE) {
+            write(Op.name(op));
+            write(pretty ? " (" : "(");
+        } else if (op != Op.PROG && op != Op.ASSIGN) {
+            write(Op.name(op));
+        }
+        if (depth == ops.length) {
+            ops = Arrays.copyOf(ops, depth * 2);
+            counts = Arrays.copyOf(counts, depth * 2);
+        }
+        ops[depth] = op;
+        counts[depth] = 0;
+        depth++;
+    }
+
+    public void literal(int value) {
+        beforeChild(Op.NUM);
+        write(Integer.toString(value));
+    }
+
+    public void variable(int slot, String name) {
+        beforeChild(Op.VAR);
+        write("$" + name);
+    }
+
+    public void close() {
+        depth--;
+        int op = ops[depth];
+        if (op == Op.BLOCK) {
+            blocks--;
+            newline();
+            write("}");
+        } else if (op == Op.PROG) {
+            if (pretty && started) { write("\n"); }
+        } else if (op != Op.ASSIGN && op >= Op.MOVE && counts[depth] > 0) {
+            write(")");    // the end of an expression, condition, or move/wait argument
+        }
+        if (Op.isAction(op) || op == Op.ASSIGN) { write(";"); }
+    }
+
+    /** Writes what goes between the open node and its next child. */
+    private void beforeChild(int op) {
+        if (depth == 0) { return; }
+        int parent = ops[depth - 1];
+        int index = counts[depth - 1]++;
+        switch (parent) {
+        case Op.PROG -> { if (started) { newline(); } }
+        case Op.BLOCK -> newline();
+        case Op.LOOP -> { if (pretty) { write(" "); } }
+        case Op.ASSIGN -> { if (index == 1) { write(pretty ? " = " : "="); } }
+        case Op.IF, Op.ELIF, Op.WHILE -> {
+            if (index == 1) {
+                write(pretty ? ") " : ")");
+            } else if (index > 1) {
+                if (pretty) { write(" "); }
+                if (op == Op.BLOCK) { write(pretty ? "else " : "else"); }
+            }
+        }
+        default -> write(index == 0 ? "(" : pretty ? ", " : ",");
+        }
+    }
+
+    private void newline() {
+        if (!pretty) { return; }
+        write("\n");
+        for (int i = 0; i < blocks; i++) { write(INDENT); }
+    }
+
+    private void write(String text) {
+        try {
+            out.append(text);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        started = true;
+    }
+}
@@ -23,7 +23,12 @@ public class RoboGame extends JFrame {
 
     public static final String ASSET_DIRECTORY ="./assets/";     // the folder containing the images for the robot
     public static final String CODE_DIRECTORY = "./programs/";   // the folder containing the robot programs
+    public static final String CACHE_DIRECTORY = "./cache/";     // the folder for the cache of parsed programs
     public static boolean debugDisplay = true;
+    public static Engine engine = Engine.TREE;                 // how loaded programs are executed
+    public static int compileThreshold = 10000;                // statements run before the TIERED engine compiles a program
+    public static int loopBudget = 100000;                     // times round while loops a robot may go between actions
+    public static Robot.Overrun overrun = Robot.Overrun.WAIT;  // what happens to a robot that goes over the budget
 
     /**
      * Set up the interface for the game
@@ -52,9 +57,18 @@ public class RoboGame extends JFrame {
         final JMenu loadMenu = new JMenu("Load Program");
         menu.add(loadMenu);
 
+        final JMenu editMenu = new JMenu("Edit Program");
+        menu.add(editMenu);
+
         final JMenu debugMenu = new JMenu("Debug ");
         menu.add(debugMenu);
 
+        final JMenu engineMenu = new JMenu("Engine");
+        menu.add(engineMenu);
+
+        final JMenu overrunMenu = new JMenu("Overrun");
+        menu.add(overrunMenu);
+
         final JMenuItem load1 = makeMenuItem("Robot 1 (Red)",loadMenu, (ActionEvent e) -> {
                 code1 = getCodeFile();
                 if (code1 != null) {
@@ -70,6 +84,31 @@ public class RoboGame extends JFrame {
                     worldComp.repaint();
                 }
             });
+        makeMenuItem("Robot 1 (Red)", editMenu, (ActionEvent e) -> {
+                File file = (code1 != null) ? code1 : getCodeFile();
+                if (file != null) {
+                    new ProgramEditor(file, (File saved) -> {
+                            code1 = saved;
+                            if (load1.isEnabled()) {
+                                worldComp.loadRobotProgram(1, code1);
+                                worldComp.repaint();
+                            }
+                        });
+                }
+            });
+        makeMenuItem("Robot 2 (Blue)", editMenu, (ActionEvent e) -> {
+                File file = (code2 != null) ? code2 : getCodeFile();
+                if (file != null) {
+                    new ProgramEditor(file, (File saved) -> {
+                            code2 = saved;
+                            if (load2.isEnabled()) {
+                                worldComp.loadRobotProgram(2, code2);
+                                worldComp.repaint();
+                            }
+                        });
+                }
+            });
+
         final JMenuItem start = makeMenuItem ("Start",menu, null);
         start.addActionListener((ActionEvent e) -> {   // acts on the JMenuItem itself...
                 load1.setEnabled(false);
@@ -94,6 +133,12 @@ public class RoboGame extends JFrame {
 
         final JMenuItem debugOn = makeMenuItem("On", debugMenu,(ActionEvent e) -> {debugDisplay = true;});
         final JMenuItem debugOff = makeMenuItem("Off", debugMenu,(ActionEvent e) -> {debugDisplay = false;});
+        for (Engine e : Engine.values()) {
+            makeMenuItem(e.toString(), engineMenu, (ActionEvent ev) -> {engine = e;});
+        }
+        for (Robot.Overrun o : Robot.Overrun.values()) {
+            makeMenuItem(o.toString(), overrunMenu, (ActionEvent ev) -> {overrun = o;});
+        }
         JMenuItem quit = makeMenuItem("Quit", menu,(ActionEvent e) -> {System.exit(0);});
 
     }
@@ -5,15 +5,12 @@ import java.awt.Point;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Arc2D;
 import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
-import javax.imageio.ImageIO;
-
 public class Robot {
 
     // =======================================================
@@ -27,6 +24,27 @@ public class Robot {
      * Move forward one step.
      */
     public void move() {
+        startMove();
+        processFuelAndBlock();
+        readState();
+    }
+
+    /**
+     * Move forward the given number of steps, one a tick, stopping early if
+     * a step is blocked (by a wall or the other robot) or the fuel runs out.
+     * The world carries out the steps without waking the robot's thread
+     * between them.
+     */
+    public void move(int steps) {
+        batch(ACTION_MOVE, steps);
+    }
+
+    /**
+     * Sets up one step forward, for the world to carry out. Whether the
+     * other robot is in the way is only known once both have chosen their
+     * actions (see resolve()).
+     */
+    private void startMove() {
         debug("move");
         currentAction = ACTION_MOVE;
         switch (dir) {
@@ -39,16 +57,6 @@ public class Robot {
         targetY = Math.max(0, targetY);
         targetX = Math.min(11, targetX);
         targetY = Math.min(11, targetY);
-        Robot other = world.getOtherRobot(this);
-        if (other != null) {
-            if (other.targetX == targetX && other.targetY == targetY) {
-                // not allowed to move
-                targetX = x;
-                targetY = y;
-            }
-        }
-        processFuelAndBlock();
-        readState();
     }
 
     /**
@@ -129,9 +137,90 @@ public class Robot {
         readState();
     }
 
+    /**
+     * Wait for the given number of ticks, stopping early if the fuel runs
+     * out, without waking the robot's thread between them.
+     */
+    public void idleWait(int ticks) {
+        batch(ACTION_WAIT, ticks);
+    }
+
+    /**
+     * Does a move or wait steps times. While a robot is blocked waiting for
+     * the world, updatePending() starts each step after the first itself
+     * (see continueBatch()); otherwise there is nothing to hand off, and
+     * the steps are just done one after another.
+     */
+    private void batch(int action, int steps) {
+        if (steps <= 0)
+            return;
+        if (noWait) {
+            for (int i = 0; i < steps; i++) {
+                if (action == ACTION_MOVE) move(); else idleWait();
+                if (fuel <= 0 || (action == ACTION_MOVE && blocked))
+                    return;
+            }
+            return;
+        }
+        batchAction = action;
+        batchSteps = steps - 1;
+        if (action == ACTION_MOVE) move(); else idleWait();
+    }
+
+    /**
+     * Called by the interpreters each time they go round a while loop. A
+     * robot that goes round more than RoboGame.loopBudget times without an
+     * action that takes a tick is dealt with as RoboGame.overrun says.
+     * Returns true if that made the robot wait.
+     */
+    public boolean countIteration() {
+        if (cancelled)
+            throw new RobotInterruptedException();
+        if (++iterations <= RoboGame.loopBudget)
+            return false;
+        iterations = 0;
+        switch (RoboGame.overrun) {
+        case WAIT -> {
+            debug("too long without an action: made to wait");
+            idleWait();
+            return true;
+        }
+        case FORFEIT -> {
+            debug("too long without an action: forfeits");
+            targetFuel = 0;
+        }
+        case CANCEL -> debug("too long without an action: stopped");
+        }
+        throw new RobotInterruptedException();
+    }
+
+    /**
+     * Called by the interpreters when a program starts: gives the robot a
+     * new frame of the given number of variable slots, all 0, and returns it.
+     */
+    public int[] newFrame(int slots) {
+        frame = new int[slots];
+        return frame;
+    }
+
+    /**
+     * The values of the running program's variables, indexed by the slots
+     * the Parser gave them (see Parser.VAR).
+     */
+    public int[] frame() {
+        return frame;
+    }
+
     // -------------
     // Robot Sensors
     // -------------
+    //
+    // The robot's view of the world only changes when a tick completes, so
+    // updatePending() works out every sensor reading once (see sense()) and
+    // the sensors just return it: a plain field read, with no check for
+    // cancellation (a robot is stopped by its next action or by going round
+    // a while loop, see countIteration()) and no logging. When the Debug
+    // menu is on, sense() logs all the readings once a tick.
 
     /**
      * Distance to the wall directly in front of the robot relative to its
@@ -140,15 +229,7 @@ public class Robot {
      * @return
      */
     public int getDistanceToWall() {
-        if (cancelled)
-            throw new RobotInterruptedException();
-        switch (dir) {
-        case NORTH -> {return y;}
-        case SOUTH -> {return 11 - y;}
-        case WEST -> {return x;}
-        case EAST -> {return 11 - x;}
-        }
-        return 0;
+        return wallDist;
     }
 
     /**
@@ -159,15 +240,7 @@ public class Robot {
      *         if to the right and 0 if directly in front or behind
      */
     public int getOpponentLR() {
-        if (cancelled)
-            throw new RobotInterruptedException();
-        if (otherRobotPos == null) {
-            debug("oppLR=INFINTY");
-            return INFINITY;
-        } else {
-            debug("oppLR=" + otherRobotPos.x);
-            return otherRobotPos.x;
-        }
+        return oppLR;
     }
 
     /**
@@ -178,25 +251,14 @@ public class Robot {
      *         behind and 0 if directly to the left or right.
      */
     public int getOpponentFB() {
-        if (cancelled)
-            throw new RobotInterruptedException();
-        if (otherRobotPos == null) {
-            debug("oppFB=INFINTY");
-            return INFINITY;
-        } else {
-            debug("oppFB=" + otherRobotPos.y);
-            return otherRobotPos.y;
-        }
+        return oppFB;
     }
 
     /**
      * @return The number of barrels currently in the world
      */
     public int numBarrels() {
-        if (cancelled)
-            throw new RobotInterruptedException();
-        debug("numBarrels = " + barrels.size());
-        return barrels.size();
+        return numBarrels;
     }
 
     /**
@@ -207,9 +269,7 @@ public class Robot {
      *         the right and 0 if directly in front or behind
      */
     public int getClosestBarrelLR() {
-        if (cancelled)
-            throw new RobotInterruptedException();
-        return getBarrelLR(0);
+        return barrelLR;
     }
 
     /**
@@ -220,39 +280,31 @@ public class Robot {
      *         and 0 if directly to the left or right.
      */
     public int getClosestBarrelFB() {
-        if (cancelled)
-            throw new RobotInterruptedException();
-        return getBarrelFB(0);
+        return barrelFB;
     }
 
     /**
      * Left-right-location of the nth fuel barrel relative to the current
      * position and orientation.
      * 
-     * @return INFINTY if there are less than n barrels, -ve if to the left, +ve
-     *         if to the right and 0 if directly in front or behind
+     * @return INFINTY if there are less than n barrels (or n is negative), -ve
+     *         if to the left, +ve if to the right and 0 if directly in front or
+     *         behind
      */
     public int getBarrelLR(int n) {
-        if (cancelled)
-            throw new RobotInterruptedException();
-        int val = (n >= barrels.size()) ? INFINITY : barrels.get(n).x;
-        debug(((n == 0) ? "" : (n + "th")) + "closestBarrelLR = " + ((val == INFINITY) ? "INFINITY" : "" + val));
-        return val;
+        return (n < 0 || n >= barrels.size()) ? INFINITY : barrels.get(n).x;
     }
 
     /**
      * Front-back-location of the nth fuel barrel relative to the current
      * position and orientation.
      * 
-     * @return INFINITY if there are less than n barrels, +ve if in front, -ve
-     *         if behind and 0 if directly to the left or right.
+     * @return INFINITY if there are less than n barrels (or n is negative),
+     *         +ve if in front, -ve if behind and 0 if directly to the left or
+     *         right.
      */
     public int getBarrelFB(int n) {
-        if (cancelled)
-            throw new RobotInterruptedException();
-        int val = (n >= barrels.size()) ? INFINITY : barrels.get(n).y;
-        debug(((n == 0) ? "" : (n + "th")) + "closestBarrelFB = " + ((val == INFINITY) ? "INFINITY" : "" + val));
-        return val;
+        return (n < 0 || n >= barrels.size()) ? INFINITY : barrels.get(n).y;
     }
 
     /**
@@ -261,9 +313,6 @@ public class Robot {
      * @return
      */
     public int getFuel() {
-        if (cancelled)
-            throw new RobotInterruptedException();
-        debug("fuel=" + fuel);
         return fuel;
     }
 
@@ -271,9 +320,6 @@ public class Robot {
      * @return boolean stating whether the shield is currently on.
      */
     public boolean isShieldOn() {
-        if (cancelled)
-            throw new RobotInterruptedException();
-        debug(shield ? "shield is on" : "shield is off");
         return shield;
     }
 
@@ -290,22 +336,41 @@ public class Robot {
     private static final int
         FUEL_IDLE = 3, FUEL_MOVE = 6, FUEL_TURN = 5, FUEL_SHIELD = 15;
 
-    private enum DIRECTION { NORTH, WEST, SOUTH, EAST }
+    enum DIRECTION { NORTH, WEST, SOUTH, EAST }
+
+    /**
+     * What happens to a robot that goes round its loops too often without
+     * doing anything (see countIteration()): it waits for a tick and carries
+     * on, its program is stopped, or it gives up all its fuel and loses.
+     */
+    public enum Overrun { WAIT, CANCEL, FORFEIT }
 
     private World world;
     private Point otherRobotPos;
     private List<Point> barrels = new ArrayList<Point>();
     private ProgramNode program;
 
-    private boolean shield, dead, finished, cancelled;
+    private boolean shield, dead, finished;
+    private volatile boolean cancelled;    // set by the world, read by the robot's thread as it runs
     private int fuel = 100, targetFuel;
     private int x, y, targetX, targetY;
     private DIRECTION dir, targetDir;
     //	private int x, y, dir, targetX, targetY, targetDir;
     private int currentAction;
+    private int iterations;    // times round a loop since the last action
+    private boolean blocked;    // whether the last move was blocked
+    private boolean unresolved;    // the current action is still to be resolve()d
+    private int batchAction, batchSteps;    // the steps of move(n) or wait(n) still to start
+    private int[] frame = new int[0];    // the program's variables
+    // the sensor readings for this tick, set by sense()
+    private int wallDist, oppLR, oppFB, numBarrels, barrelLR, barrelFB;
     private String colour;
-    private BufferedImage robotImage1, robotImage2, shieldImage;
     private boolean noWait = false;
+    private boolean quiet;    // prints nothing, whatever the Debug menu says
+
+    // for step(): the program's code and where it has got to
+    private BytecodeProgram stepCode;
+    private BytecodeProgram.State stepState;
 
     public Robot(World world, int x, int y, String colour, boolean noWait) {
         this.world = world;
@@ -318,13 +383,7 @@ public class Robot {
         dir = (y < World.SIZE / 2) ? DIRECTION.SOUTH : DIRECTION.NORTH;
         targetDir = dir;
         targetFuel = fuel;
-        try {
-            robotImage1 = ImageIO.read(new File(RoboGame.ASSET_DIRECTORY+"robot_" + colour + "_1.png"));
-            robotImage2 = ImageIO.read(new File(RoboGame.ASSET_DIRECTORY+"robot_" + colour + "_2.png"));
-            shieldImage = ImageIO.read(new File(RoboGame.ASSET_DIRECTORY+ "shield.png"));
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        sense(false);
     }
 
     private ArrayList<String> history = new ArrayList<>();
@@ -337,6 +396,14 @@ public class Robot {
         program = prog;
     }
 
+    /**
+     * Stops the robot printing what it does and senses, as for a game no
+     * one is watching (see Match).
+     */
+    public void setQuiet(boolean quiet) {
+        this.quiet = quiet;
+    }
+
     /**
      * Start this robot running. If it has a valid program,, then executes the
      * program, passing in the robot. Otherwise, calls the default program.
@@ -349,6 +416,23 @@ public class Robot {
         }
     }
 
+    /**
+     * Runs this robot's program (or the default program) on the calling
+     * thread until it has done its next action, then returns without waiting
+     * for the world: the action is carried out when the world next calls
+     * updatePending(). So one thread can drive any number of robots, one
+     * tick at a time. Returns false once the program has finished.
+     *
+     * A robot is either run() on its own thread or stepped, not both.
+     */
+    public boolean step() {
+        if (stepState == null) {
+            stepCode = BytecodeProgram.of((program != null) ? program : new Parser().parse(DEFAULT_PROGRAM));
+            stepState = stepCode.start();
+        }
+        return stepCode.step(this, stepState);
+    }
+
     /**
      * Unblocks execution of this robot and hopefully completes its execution.
      * Don't call this yourself.
@@ -373,44 +457,48 @@ public class Robot {
     }
 
     /**
-     * Called by the GUI only.
+     * Called by the GUI only: draws the robot part way (time, from 0 to 1)
+     * through the tick that took it from one snapshot's state to the next.
      * 
      * @param g2d
+     * @param from
+     * @param to
      * @param time
      */
-    public void draw(Graphics2D g2d, double time) {
-        double x = this.x * (1 - time) + targetX * time;
-        double y = this.y * (1 - time) + targetY * time;
+    public void draw(Graphics2D g2d, WorldSnapshot.RobotState from, WorldSnapshot.RobotState to, double time) {
+        double x = from.x() * (1 - time) + to.x() * time;
+        double y = from.y() * (1 - time) + to.y() * time;
         x = x * WorldComponent.GRID_SIZE + WorldComponent.GRID_SIZE / 2d;
         y = y * WorldComponent.GRID_SIZE + WorldComponent.GRID_SIZE / 2d;
 
-        double angle = getAngle(dir);
-        switch (currentAction) {
-        case ACTION_TURN_LEFT -> { angle -= Math.toRadians(90) * time; }
-        case ACTION_TURN_RIGHT -> { angle += Math.toRadians(90) * time; }
-        case ACTION_TURN_AROUND -> { angle += Math.toRadians(180) * time; }
+        double angle = getAngle(to.dir());
+        int action = (from == to) ? 0 : to.action();
+        switch (action) {
+        case ACTION_TURN_LEFT -> { angle += Math.toRadians(90) * (1 - time); }
+        case ACTION_TURN_RIGHT -> { angle -= Math.toRadians(90) * (1 - time); }
+        case ACTION_TURN_AROUND -> { angle -= Math.toRadians(180) * (1 - time); }
         }
 
+        BufferedImage robotImage1 = Sprites.get("robot_" + colour + "_1.png");
+        BufferedImage robotImage2 = Sprites.get("robot_" + colour + "_2.png");
         AffineTransform trans = new AffineTransform();
         trans.translate(x, y);
         trans.rotate(angle);
         trans.translate(-robotImage1.getWidth() / 2d, -robotImage1.getHeight() / 2d);
 
-        if (((int) (time * 10)) % 2 == 0 && currentAction < ACTION_TAKE_FUEL && currentAction > 0) {
+        if (((int) (time * 10)) % 2 == 0 && action < ACTION_TAKE_FUEL && action > 0) {
             g2d.drawImage(robotImage2, trans, null);
         } else {
             g2d.drawImage(robotImage1, trans, null);
         }
 
-        if (shield) {
+        if (to.shield()) {
             trans = new AffineTransform();
             trans.translate(x - 25, y - 25);
-            g2d.drawImage(shieldImage, trans, null);
+            g2d.drawImage(Sprites.get("shield.png"), trans, null);
         }
 
-        double fuelCurrent = targetFuel * time + fuel * (1 - time);
-        if (fuelCurrent <= 0)
-            dead = true;
+        double fuelCurrent = to.fuel() * time + from.fuel() * (1 - time);
 
         // draw fuel indicator
         Arc2D fuelArc = new Arc2D.Double(x - 10, y - 10, 20, 20, -90, 360d * fuelCurrent / 100d, Arc2D.OPEN);
@@ -419,10 +507,16 @@ public class Robot {
         g2d.draw(fuelArc);
     }
 
+    /** Whether the robot has run out of fuel, as of the last tick. */
     public boolean isDead() {
         return dead;
     }
 
+    /** Whether the robot's program has finished (see setFinished(..)). */
+    public boolean isFinished() {
+        return finished;
+    }
+
     private Point getOtherRobotPosition() {
         Robot other = world.getOtherRobot(this);
         return (other != null) ? toRelative(new Point(other.x, other.y)) : null;
@@ -450,9 +544,12 @@ public class Robot {
         return 0;
     }
 
+    /**
+     * Works out the fuel the current action uses (or gains). targetFuel
+     * starts the tick equal to fuel (see updatePending()), less anything the
+     * other robot has already siphoned off this tick.
+     */
     private void processFuel() {
-        // use fuel
-        targetFuel = fuel;
         switch (currentAction) {
         case ACTION_MOVE ->        { targetFuel -= FUEL_MOVE; }
         case ACTION_TURN_LEFT->    { targetFuel -= FUEL_TURN; }
@@ -469,7 +566,8 @@ public class Robot {
                 if (other != null && !other.shield) {
                     Point otherP = getOtherRobotPosition(); // relative position
                     if (otherP.x == 0 && otherP.y == 1) {
-                        System.out.println("Taking fuel");
+                        if (!quiet)
+                            System.out.println("Taking fuel");
                         int takeFuel = Math.min(25, other.targetFuel / 2);
                         takeFuel = Math.min(other.targetFuel, takeFuel);
                         targetFuel = Math.min(100, targetFuel + takeFuel);
@@ -483,38 +581,85 @@ public class Robot {
         if (shield) targetFuel -= FUEL_SHIELD;
     }
 
+    /**
+     * Hands the action just chosen to the world, and (on the robot's own
+     * thread) waits until a tick has carried it out.
+     */
     private void processFuelAndBlock() {
         if (cancelled)
             throw new RobotInterruptedException();
-        // use fuel
-        processFuel();
+        iterations = 0;
+        unresolved = true;
         if (this.noWait) {
+            resolve();
             updatePending();
-        } else {
-            while (currentAction != 0) {
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException e) {
-                }
+        } else if (stepState == null) {
+            world.awaitTick(this);
+        }
+    }
+
+    /**
+     * Called by the world, for each robot in turn, once both have chosen
+     * their actions: a move into the square the other robot will be in is
+     * blocked, and the fuel the action uses (or takes) is worked out. Going
+     * in the same order every tick keeps the game deterministic.
+     */
+    void resolve() {
+        if (!unresolved)
+            return;
+        unresolved = false;
+        if (currentAction == ACTION_MOVE) {
+            Robot other = world.getOtherRobot(this);
+            if (other != null && other.targetX == targetX && other.targetY == targetY) {
+                // not allowed to move
+                targetX = x;
+                targetY = y;
             }
+            blocked = (targetX == x && targetY == y);
         }
+        processFuel();
+    }
+
+    /** Whether the robot has an action that a tick has yet to finish. */
+    boolean isBusy() {
+        return currentAction != 0;
     }
 
     /**
      * Called by the "World" only.
      */
     public void updatePending() {
+        commit();
+        Robot other = world.getOtherRobot(this);
+        observe((other != null) ? new Point(other.x, other.y) : null, world.getAvailableFuel());
+    }
+
+    /**
+     * The first half of updatePending(): finishes the tick, making where
+     * the robot was going (targetX and the rest) where it is.
+     */
+    void commit() {
         // reset turn
         x = targetX;
         y = targetY;
         dir = targetDir;
         fuel = targetFuel;
+        if (fuel <= 0)
+            dead = true;
         if (finished) {
             currentAction = ACTION_WAIT;
             processFuel();
         }
-        otherRobotPos = getOtherRobotPosition();
-        barrels = new ArrayList<Point>(world.getAvailableFuel());
+    }
+
+    /**
+     * The second half of updatePending(): works out the sensors from where
+     * the other robot (if any) and the barrels are, and gets ready for the
+     * next action.
+     */
+    void observe(Point other, Collection<Point> fuel) {
+        otherRobotPos = (other != null) ? toRelative(other) : null;
+        barrels = new ArrayList<Point>(fuel);
         for (int i = 0; i < barrels.size(); i++) {
             Point p = toRelative(barrels.get(i));
             barrels.set(i, p);
@@ -528,9 +673,65 @@ public class Robot {
                     return d1 - d2;
                 }
             });
+        sense(true);
+        if (batchSteps > 0 && continueBatch())
+            return;    // still busy, so the robot's thread sleeps on
+        batchSteps = 0;
         currentAction = 0;
     }
 
+    /** Where the robot is (once commit() has finished a tick), for a WorldSnapshot. */
+    WorldSnapshot.RobotState state() {
+        return new WorldSnapshot.RobotState(x, y, dir, fuel, shield, currentAction);
+    }
+
+    /**
+     * Called by updatePending() when a step of move(n) or wait(n) has just
+     * finished: starts the next step, unless the batch should stop early.
+     * Returns whether it started one.
+     */
+    private boolean continueBatch() {
+        if (cancelled || finished || fuel <= 0 || (batchAction == ACTION_MOVE && blocked))
+            return false;
+        readState();    // for the step that has finished, as move() or idleWait() would
+        batchSteps--;
+        if (batchAction == ACTION_MOVE) {
+            startMove();
+        } else {
+            debug("wait");
+            currentAction = ACTION_WAIT;
+        }
+        iterations = 0;
+        unresolved = true;
+        return true;
+    }
+
+    /**
+     * Works out what the sensors will read until the next tick, and logs
+     * them if asked to and the Debug menu is on.
+     */
+    private void sense(boolean log) {
+        switch (dir) {
+        case NORTH -> {wallDist = y;}
+        case SOUTH -> {wallDist = 11 - y;}
+        case WEST -> {wallDist = x;}
+        case EAST -> {wallDist = 11 - x;}
+        }
+        oppLR = (otherRobotPos == null) ? INFINITY : otherRobotPos.x;
+        oppFB = (otherRobotPos == null) ? INFINITY : otherRobotPos.y;
+        numBarrels = barrels.size();
+        barrelLR = barrels.isEmpty() ? INFINITY : barrels.get(0).x;
+        barrelFB = barrels.isEmpty() ? INFINITY : barrels.get(0).y;
+        if (log && RoboGame.debugDisplay && !quiet)
+            debug("senses fuel=" + fuel + ", wallDist=" + wallDist
+                  + ", oppLR=" + ((oppLR == INFINITY) ? "INFINITY" : "" + oppLR)
+                  + ", oppFB=" + ((oppFB == INFINITY) ? "INFINITY" : "" + oppFB)
+                  + ", numBarrels=" + numBarrels
+                  + ", closestBarrelLR=" + ((barrelLR == INFINITY) ? "INFINITY" : "" + barrelLR)
+                  + ", closestBarrelFB=" + ((barrelFB == INFINITY) ? "INFINITY" : "" + barrelFB)
+                  + (shield ? ", shield is on" : ", shield is off"));
+    }
+
     public String toString() {
         return "the " + colour + " robot @(" + x + "," + y + ")";
     }
@@ -540,11 +741,22 @@ public class Robot {
      * turned on.
      */
     private void debug(String action) {
+        if (quiet)
+            return;
         //		if (RoboGame.debugDisplay && program != null) {
         System.out.println(colour + " robot: " + action);
         //}
     }
 
+    /** defaultProgram() as a robot program, for step(). */
+    private static final String DEFAULT_PROGRAM =
+        "while (gt(fuelLeft, 0)) {"
+        + "  if (eq(numBarrels, 0)) { wait; }"
+        + "  else { if (and(eq(barrelLR, 0), eq(barrelFB, 0))) { takeFuel; }"
+        + "  else { if (eq(barrelFB, 0)) { if (lt(barrelLR, 0)) { turnL; } else { turnR; } }"
+        + "  else { if (gt(barrelFB, 0)) { move; } else { turnAround; } } } }"
+        + "}";
+
     /**
      * What the robot will do if it has no valid controller
      */
@@ -1,3 +1,11 @@
 @SuppressWarnings("serial")
 public class RobotInterruptedException extends RuntimeException {
+
+    /**
+     * Only ever used to unwind a cancelled robot's thread, so it doesn't
+     * fill in a stack trace (or keep a message or cause).
+     */
+    public RobotInterruptedException() {
+        super(null, null, false, false);
+    }
 }
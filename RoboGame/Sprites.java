@@ -0,0 +1,42 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The images in the asset directory, each read the first time it is
+ * drawn and then shared by every robot and world in the program. Nothing
+ * is read until something is drawn, so robots that are never drawn (as in
+ * a Match) never touch the assets at all.
+ *
+ * The images must not be drawn on, as they are shared.
+ */
+final class Sprites {
+
+    private static final Map<String, BufferedImage> images = new ConcurrentHashMap<>();
+
+    private Sprites() {}
+
+    /**
+     * The image in the given file in the asset directory. One that can't
+     * be read is reported once, and is blank from then on.
+     */
+    static BufferedImage get(String name) {
+        return images.computeIfAbsent(name, Sprites::read);
+    }
+
+    private static BufferedImage read(String name) {
+        try {
+            BufferedImage image = ImageIO.read(new File(RoboGame.ASSET_DIRECTORY + name));
+            if (image != null)
+                return image;
+            System.out.println("Not an image: " + RoboGame.ASSET_DIRECTORY + name);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+    }
+}
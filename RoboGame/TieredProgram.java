@@ -0,0 +1,80 @@
+/**
+ * A program that starts out on the BytecodeProgram interpreter and, once it
+ * has run enough statements, is compiled to a JVM class (see
+ * ClassGenerator) so that the JIT can optimise the whole program, with
+ * every sensor and action a direct call on Robot.
+ *
+ * The count is shared by every robot running the program, so in a
+ * tournament a strong program is compiled once and then every match runs
+ * the compiled code from the start. A robot already running the program
+ * moves over to the compiled code the next time it goes round a while
+ * loop. If the class can't be generated (the program is too big for one
+ * JIT compiled method, or the JVM refuses the class) the program just
+ * carries on in the interpreter.
+ */
+public class TieredProgram implements ProgramNode {
+
+    /** The code generated for a program. */
+    interface Compiled {
+        /**
+         * Runs the program from the given address in its BytecodeProgram:
+         * 0, or the top of a while loop (where the machine's stack is empty),
+         * with the variables in the robot's frame().
+         */
+        void run(Robot robot, int entry);
+    }
+
+    final BytecodeProgram code;
+    private final int threshold;
+
+    // Updated by every robot that runs the program without locking: a few
+    // lost counts just mean compiling a little later.
+    private int count;
+    private volatile Compiled compiled;
+    private volatile boolean tried;
+
+    /**
+     * threshold is the number of statements (actions, and times round a
+     * loop) to run in the interpreter before compiling.
+     */
+    public TieredProgram(BytecodeProgram code, int threshold) {
+        this.code = code;
+        this.threshold = threshold;
+    }
+
+    public void execute(Robot robot) {
+        Compiled c = compiled;
+        if (c != null) {
+            robot.newFrame(code.slots);
+            c.run(robot, 0);
+        } else {
+            code.run(robot, this);
+        }
+    }
+
+    /** Whether the program has been compiled to a class. */
+    public boolean isCompiled() {
+        return compiled != null;
+    }
+
+    /**
+     * Called by the interpreter for each statement it runs. Returns the
+     * compiled code once there is some.
+     */
+    Compiled count() {
+        if (++count >= threshold && !tried) { compile(); }
+        return compiled;
+    }
+
+    private synchronized void compile() {
+        if (tried) { return; }
+        try {
+            compiled = ClassGenerator.generate(code);
+        } catch (ClassGenerator.TooBigException e) {
+            // stays in the interpreter
+        } catch (RuntimeException | LinkageError e) {
+            System.out.println("Could not compile robot program, interpreting it instead: " + e);
+        }
+        tried = true;
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * The kinds of token produced by the Lexer.
+ * Keywords and punctuation carry their spelling; NUM, VAR, WORD and EOF do not.
+ * Keywords that start a node also carry the node's opcode.
+ * The keywords in each group are contiguous so the parser can test a whole
+ * group with EnumSet.range(..).
+ */
+public enum Token {
+    // actions
+    MOVE("move", Op.MOVE), TURNL("turnL", Op.TURNL), TURNR("turnR", Op.TURNR),
+    TAKEFUEL("takeFuel", Op.TAKEFUEL), WAIT("wait", Op.WAIT), TURNAROUND("turnAround", Op.TURNAROUND),
+    SHIELDON("shieldOn", Op.SHIELDON), SHIELDOFF("shieldOff", Op.SHIELDOFF),
+    // sensors
+    FUELLEFT("fuelLeft", Op.FUELLEFT), OPPLR("oppLR", Op.OPPLR), OPPFB("oppFB", Op.OPPFB),
+    NUMBARRELS("numBarrels", Op.NUMBARRELS), BARRELLR("barrelLR", Op.BARRELLR),
+    BARRELFB("barrelFB", Op.BARRELFB), WALLDIST("wallDist", Op.WALLDIST),
+    // relational operators
+    LT("lt", Op.LT), GT("gt", Op.GT), EQ("eq", Op.EQ),
+    // logical operators
+    AND("and", Op.AND), OR("or", Op.OR), NOT("not", Op.NOT),
+    // arithmetic operators
+    ADD("add", Op.ADD), SUB("sub", Op.SUB), MUL("mul", Op.MUL), DIV("div", Op.DIV),
+    // control flow
+    LOOP("loop", Op.LOOP), IF("if", Op.IF), ELIF("elif", Op.ELIF), ELSE("else"), WHILE("while", Op.WHILE),
+    // punctuation
+    OPENPAREN("("), CLOSEPAREN(")"), OPENBRACE("{"), CLOSEBRACE("}"), COMMA(","), SEMICOL(";"), ASSIGN("="),
+    // everything else
+    NUM(null), VAR(null), WORD(null), EOF(null);
+
+    final String text;
+    final int op;           // the Op for a keyword that starts a node, else -1
+
+    Token(String text) {
+        this(text, -1);
+    }
+
+    Token(String text, int op) {
+        this.text = text;
+        this.op = op;
+    }
+
+    boolean isKeyword() {
+        return text != null && Character.isLetter(text.charAt(0));
+    }
+
+    public String toString() {
+        return (text != null) ? text : name();
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * The result of checking a program's syntax with Parser.validate(..):
+ * either valid, or the parser's error message and where it happened.
+ */
+public final class Validation {
+
+    static final Validation VALID = new Validation(null, 0, 0, -1);
+
+    public final String message;
+    public final int line, column;
+    public final long offset;
+
+    private Validation(String message, int line, int column, long offset) {
+        this.message = message;
+        this.line = line;
+        this.column = column;
+        this.offset = offset;
+    }
+
+    static Validation of(ParserFailureException e) {
+        return new Validation(e.getMessage(), e.line, e.column, e.offset);
+    }
+
+    public boolean isValid() {
+        return message == null;
+    }
+
+    public String toString() {
+        return isValid() ? "valid" : line + ":" + column + ": " + message;
+    }
+}
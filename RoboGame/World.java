@@ -1,7 +1,6 @@
 
 import java.awt.Point;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
@@ -11,7 +10,6 @@ import java.util.List;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.Scanner;
 
 /** Simulation of the robots in their world */
 
@@ -20,21 +18,62 @@ public class World {
     public static final int SIZE = 12;
 
     protected Set<Point> availableFuel = Collections.newSetFromMap(new ConcurrentHashMap<Point, Boolean>());
-    private Random rand = new Random();
+    private final Random rand;
     protected Robot[] robots;
 
+    // The robots' threads and the world take turns, a tick at a time, using
+    // this world's monitor. A robot's thread runs its program until it has
+    // chosen an action, then waits in awaitTick(..). Once every running
+    // robot has chosen, updateWorld() resolves and carries out the actions
+    // in the robots' order, and lets the threads go on. Nothing polls, so a
+    // tick takes only as long as the robots take to choose.
+    private final boolean[] running = new boolean[3];    // by robot: its program is running on its thread
+    private final boolean[] waiting = new boolean[3];    // by robot: it has chosen its action
+    private final Thread[] threads = new Thread[3];      // by robot: the thread running its program
+    private boolean stopped;
+
+    // The world as it was at the end of the last tick. A new snapshot is
+    // made once a tick and swapped in here, and the old one is left alone,
+    // so whoever reads it (the robots' sensors, the GUI) needs no lock.
+    private volatile WorldSnapshot snapshot;
+    private int ticks;
+
     public World() {
+        this(new Random());
+    }
+
+    /** A world whose fuel turns up where rand says, so a game can be played again. */
+    public World(Random rand) {
+        this.rand = rand;
         robots = new Robot[] { null, new Robot(this, 0, 0, "red", false), new Robot(this, SIZE - 1, SIZE - 1, "blue", false) };
+        snapshot = capture();
     }
 
     /**
      * This world can no longer be used after this call.
      */
     public void reset() {
+        stop();
         availableFuel.clear();
+    }
+
+    /**
+     * Ends the match: cancels both robots, and returns once their threads
+     * have finished. The world is left as it was, to be shown.
+     */
+    public void stop() {
+        synchronized (this) {
+            stopped = true;
+            for (int i = 1; i <= 2; i++) {
+                robots[i].updatePending();
+                robots[i].cancel();
+            }
+            notifyAll();
+        }
+        // outside the monitor, which the threads need to finish
         for (int i = 1; i <= 2; i++) {
-            robots[i].updatePending();
-            robots[i].cancel();
+            if (threads[i] != null)
+                join(threads[i]);
         }
     }
 
@@ -42,27 +81,133 @@ public class World {
         return availableFuel;
     }
 
-    public void updateWorld() {
+    /** The world as it was at the end of the last tick (or at the start). */
+    public WorldSnapshot snapshot() {
+        return snapshot;
+    }
+
+    private WorldSnapshot capture() {
+        return new WorldSnapshot(ticks, robots[1].state(), robots[2].state(), availableFuel);
+    }
+
+    /**
+     * Does one tick: waits for the running robots to choose their actions,
+     * carries them out (see tick()), and lets the robots go on. It then
+     * waits for their next choices and resolves them, so that until the
+     * next tick the robots' targets are where they will really go. Called
+     * by the GUI's timer, or in a loop to play a game as fast as it can.
+     */
+    public synchronized void updateWorld() {
+        awaitChoices();
+        if (stopped)
+            return;
+        tick();
+        notifyAll();
+        awaitChoices();
+        if (!stopped)
+            resolveActions();
+    }
+
+    /**
+     * The tick itself, once both robots have chosen their actions: resolves
+     * them (robot 1 first), carries them out, and publishes a snapshot of
+     * the result, which both robots then sense. A Match, which steps the
+     * robots itself, calls this directly: only once it has stepped both
+     * robots may either one's action be resolved, or a robot busy with a
+     * move(n) would be checked against where the other robot was, not
+     * where it is going.
+     */
+    synchronized void tick() {
+        resolveActions();
         addFuel(false);
+        robots[1].commit();
+        robots[2].commit();
+        ticks++;
+        WorldSnapshot now = capture();
+        snapshot = now;
         for (int i = 1; i <= 2; i++) {
-            robots[i].updatePending();
+            robots[i].observe(now.robot(3 - i).position(), now.fuel());
+            // a robot still busy with a move(n) or wait(n) has its next step chosen
+            if (!robots[i].isBusy())
+                waiting[i] = false;
+        }
+    }
+
+    /**
+     * Called on a robot's thread once it has chosen its action: waits until
+     * the world has carried it out.
+     */
+    synchronized void awaitTick(Robot robot) {
+        int id = (robot == robots[1]) ? 1 : 2;
+        waiting[id] = true;
+        notifyAll();
+        while (robot.isBusy() && !stopped)
+            pause();
+    }
+
+    private void awaitChoices() {
+        while (!stopped && ((running[1] && !waiting[1]) || (running[2] && !waiting[2])))
+            pause();
+    }
+
+    private void resolveActions() {
+        for (int i = 1; i <= 2; i++)
+            robots[i].resolve();
+    }
+
+    /** wait()s for the next change; an interrupt doesn't stop a tick or a robot (reset() does). */
+    private void pause() {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+        }
+    }
+
+    /** Waits for a robot's thread to finish; an interrupt stops the wait. */
+    private static void join(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs a robot's program on the calling thread, and marks it finished
+     * however the program ends, so that a program that fails (dividing by
+     * zero, say) doesn't leave the world waiting for it.
+     */
+    private void runRobot(int id) {
+        try {
+            robots[id].run();
+        } catch (RobotInterruptedException e) {
+        } finally {
+            synchronized (this) {
+                robots[id].setFinished(true);
+                running[id] = false;
+                notifyAll();
+            }
         }
     }
 
     public void loadRobotProgram(int id, File code) {
         try{
-            Scanner scanner = new Scanner(code);
-            ProgramNode prog = new Parser().parse(scanner);
+            ProgramNode prog = ProgramCache.shared().load(code.toPath());
             if (prog == null) {
                 System.out.println("Robot " + id + " was given an empty program and ignored it.");
             } else {
                 System.out.println("Robot " + id + " now has program: ");
-                System.out.println(prog);
-                robots[id].setProgram(prog);
+                ProgramPrinter.print(prog, System.out);
+                ProgramNode tree = Parser.optimize(prog);
+                for (Parser.WHILE loop : Optimizer.idleLoops(tree)) {
+                    System.out.println("Warning: this loop can never do an action that takes a tick, so it will use up the robot's loop budget: "
+                                       + ProgramPrinter.toCompactString(loop));
+                }
+                robots[id].setProgram(RoboGame.engine.prepareOptimized(tree));
             }
         }
-        catch (FileNotFoundException e) {
-            System.out.println("Robot program source file not found");
+        catch (IOException e) {
+            System.out.println("Robot program source file could not be read: " + e);
         }
         catch (ParserFailureException e) {
             System.out.println("Parser error:");
@@ -71,16 +216,15 @@ public class World {
     }
 
     public void start() {
-        // add some initial fuel
-        if (availableFuel.isEmpty()) {
-            addFuel(true);
-            addFuel(true);
+        synchronized (this) {
+            if (stopped)
+                return;
+            begin();    // add some initial fuel
+            running[1] = running[2] = true;
+            threads[1] = robotThread(1);
+            threads[2] = robotThread(2);
         }
-        new Thread(()-> {
-                try {robots[1].run();}
-                catch (RobotInterruptedException e) {}
-                robots[1].setFinished(true);
-        }).start();
+        threads[1].start();
         /*		new Thread(new Runnable() {
 			@Override
 			public void run() {
@@ -92,13 +236,26 @@ public class World {
 			}
                         }).start();
         */
-        new Thread(() -> {
-                try {
-                    robots[2].run();
-                } catch (RobotInterruptedException e) {
-                }
-                robots[2].setFinished(true);
-        }).start();
+        threads[2].start();
+    }
+
+    /** Starts a game: puts out the first fuel, unless there is some already. */
+    void begin() {
+        if (availableFuel.isEmpty()) {
+            addFuel(true);
+            addFuel(true);
+            snapshot = capture();
+        }
+    }
+
+    /**
+     * A thread to run a robot's program. It is a daemon, so a match that is
+     * never stopped doesn't keep the program from exiting.
+     */
+    private Thread robotThread(int id) {
+        Thread thread = new Thread(() -> runRobot(id), "robot " + id);
+        thread.setDaemon(true);
+        return thread;
     }
 
     public Robot getRobot(int id) {
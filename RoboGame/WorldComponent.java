@@ -8,12 +8,10 @@ import java.awt.RenderingHints;
 import java.awt.geom.Line2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Timer;
 import java.util.TimerTask;
 
-import javax.imageio.ImageIO;
 import javax.swing.JComponent;
 import javax.swing.JOptionPane;
 
@@ -23,9 +21,9 @@ public class WorldComponent extends JComponent {
     public static final int GRID_SIZE = 50;
     private static final int ANIMATION_DELAY = 20;
     private static final int WORLD_UPDATE_DELAY = 33;
-    private BufferedImage fuelImage;
     private World world;
     private Timer timer;
+    private WorldSnapshot shown, last;    // the tick being animated, and the one it started from
 
     private int tick = 0;
 
@@ -33,12 +31,6 @@ public class WorldComponent extends JComponent {
         super();
         world = new World();
         setPreferredSize(new Dimension(600, 600));
-
-        try {
-            fuelImage = ImageIO.read(new File(RoboGame.ASSET_DIRECTORY+"fuel.png"));
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
     }
 
     public void start() {
@@ -75,7 +67,14 @@ public class WorldComponent extends JComponent {
             g2d.draw(vline);
         }
 
-        for (Point fuel : world.getAvailableFuel()) {
+        WorldSnapshot now = world.snapshot();
+        if (now != shown) {
+            last = (shown != null && now.tick == shown.tick + 1) ? shown : now;
+            shown = now;
+        }
+
+        BufferedImage fuelImage = Sprites.get("fuel.png");
+        for (Point fuel : shown.fuel()) {
             int x = fuel.x * GRID_SIZE + GRID_SIZE / 2 - fuelImage.getWidth() / 2;
             int y = fuel.y * GRID_SIZE + GRID_SIZE / 2 - fuelImage.getHeight() / 2;
             g2d.drawImage(fuelImage, x, y, null);
@@ -84,7 +83,7 @@ public class WorldComponent extends JComponent {
         for (int i = 1; i <= 2; i++) {
             Robot rob;
             if ((rob = world.getRobot(i)) != null)
-                rob.draw(g2d, getTimeRatio());
+                rob.draw(g2d, last.robot(i), shown.robot(i), getTimeRatio());
         }
     }
 
@@ -105,20 +104,21 @@ public class WorldComponent extends JComponent {
 
         @Override
         public void run() {
-            // test for any deaths
-            boolean r1dead = world.getRobot(1).isDead();
-            boolean r2dead = world.getRobot(2).isDead();
-            if (r1dead || r2dead) {
-                timer.cancel();
-                timer = null;
-                String msg = (r1dead && r2dead) ? "Both robots" : r1dead ? "Robot 1 (red)" : "Robot 2 (blue)";
-                JOptionPane.showMessageDialog(null, msg + " ran out of fuel!");
-                return;
-            }
-
             tick++;
-            if (tick % WORLD_UPDATE_DELAY == 0)
+            if (tick % WORLD_UPDATE_DELAY == 0) {
+                // test for any deaths, once the last tick has been shown
+                boolean r1dead = world.getRobot(1).isDead();
+                boolean r2dead = world.getRobot(2).isDead();
+                if (r1dead || r2dead) {
+                    timer.cancel();
+                    timer = null;
+                    world.stop();
+                    String msg = (r1dead && r2dead) ? "Both robots" : r1dead ? "Robot 1 (red)" : "Robot 2 (blue)";
+                    JOptionPane.showMessageDialog(null, msg + " ran out of fuel!");
+                    return;
+                }
                 world.updateWorld();
+            }
             repaint();
         }
     }
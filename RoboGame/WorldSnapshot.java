@@ -0,0 +1,50 @@
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What the world looked like at the end of a tick: where the robots were,
+ * which way they faced, their fuel and shields, and where the barrels
+ * were. The World makes a new one each tick (see World.updateWorld()) and
+ * never changes it after, so the robots' sensors and the GUI can read it
+ * from any thread while the robots work out the next tick.
+ */
+final class WorldSnapshot {
+
+    /** A robot at the end of a tick, and the action that got it there (0 for none). */
+    record RobotState(int x, int y, Robot.DIRECTION dir, int fuel, boolean shield, int action) {
+
+        Point position() {
+            return new Point(x, y);
+        }
+    }
+
+    final int tick;
+    private final RobotState[] robots;    // by robot id, as in World
+    private final List<Point> fuel;
+
+    WorldSnapshot(int tick, RobotState robot1, RobotState robot2, Collection<Point> fuel) {
+        this.tick = tick;
+        this.robots = new RobotState[] { null, robot1, robot2 };
+        List<Point> copy = new ArrayList<>(fuel.size());
+        for (Point p : fuel) {
+            copy.add(new Point(p));
+        }
+        this.fuel = Collections.unmodifiableList(copy);
+    }
+
+    /** The state of robot 1 or 2. */
+    RobotState robot(int id) {
+        return robots[id];
+    }
+
+    /**
+     * The fuel barrels. The Points are this snapshot's own copies, which
+     * must not be changed.
+     */
+    List<Point> fuel() {
+        return fuel;
+    }
+}